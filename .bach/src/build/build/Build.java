@@ -82,7 +82,6 @@ class Build {
   }
 
   static void sequence(Bach bach) {
-    bach.deleteClassesDirectories();
     bach.executeDefaultBuildActions();
     new GeneratePoms(bach).execute();
   }
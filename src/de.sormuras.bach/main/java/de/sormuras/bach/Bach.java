@@ -21,21 +21,41 @@ import de.sormuras.bach.action.CompileMainSpace;
 import de.sormuras.bach.action.CompileTestSpace;
 import de.sormuras.bach.action.CompileTestSpacePreview;
 import de.sormuras.bach.action.DeleteClassesDirectories;
+import de.sormuras.bach.action.ExecuteDefaultBuildActions;
 import de.sormuras.bach.action.ResolveMissingExternalModules;
+import de.sormuras.bach.internal.BuildCache;
+import de.sormuras.bach.internal.Daemon;
 import de.sormuras.bach.internal.Factory;
+import de.sormuras.bach.internal.JUnitLauncher;
+import de.sormuras.bach.internal.JavaCompilerRunner;
+import de.sormuras.bach.internal.ModuleLayers;
+import de.sormuras.bach.internal.RemoteBuildCache;
+import de.sormuras.bach.internal.ResourceLimiter;
+import de.sormuras.bach.internal.TestWorkerPool;
+import de.sormuras.bach.tool.JUnit;
+import de.sormuras.bach.tool.TestModule;
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.System.Logger.Level;
 import java.lang.module.ModuleDescriptor.Version;
 import java.net.http.HttpClient;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
+import java.util.spi.ToolProvider;
 
 /**
  * Java Shell Builder - build modular projects with JDK tools.
@@ -109,6 +129,15 @@ public class Bach {
   private final Configuration configuration;
   private final Project project;
   private /*lazy*/ HttpClient http = null;
+  private /*lazy*/ BuildCache buildCache = null;
+  private /*lazy*/ Optional<Daemon.Connection> daemon = null;
+  private /*lazy*/ JavaCompilerRunner javaCompilerRunner = null;
+  private /*lazy*/ ResourceLimiter resourceLimiter = null;
+  private /*lazy*/ ForkJoinPool executor = null;
+  private /*lazy*/ TestWorkerPool testWorkerPool = null;
+  private /*lazy*/ ModuleLayers moduleLayers = null;
+  private final Set<Thread> toolThreads = ConcurrentHashMap.newKeySet();
+  private volatile String cancellation = null;
 
   public Bach(Configuration configuration, Project project) {
     this.configuration = configuration;
@@ -160,6 +189,10 @@ public class Bach {
       var message = logbook.log(Level.ERROR, "Build failed with throwing %s", exception);
       throw new AssertionError(message, exception);
     } finally {
+      if (javaCompilerRunner != null) javaCompilerRunner.close();
+      shutdownExecutor();
+      closeTestWorkerPool();
+      clearModuleLayers();
       var file = logbook.write(this);
       var duration = Duration.between(start, Instant.now()).toMillis();
       logbook.print();
@@ -169,10 +202,7 @@ public class Bach {
   }
 
   public void executeDefaultBuildActions() {
-    resolveMissingExternalModules();
-    compileMainSpace();
-    compileTestSpace();
-    compileTestSpaceWithPreviewLanguageFeatures();
+    new ExecuteDefaultBuildActions(this).execute();
   }
 
   public void deleteClassesDirectories() {
@@ -196,56 +226,148 @@ public class Bach {
   }
 
   public HttpClient newHttpClient() {
-    return HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build();
+    return HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .build();
   }
 
   public void run(Call<?> toolCall) {
+    run(toolCall, false);
+  }
+
+  /**
+   * Run a tool call that may be retried.
+   *
+   * <p>Unlike {@link #run(Call)}, a failure of the tool is logged as a warning and recorded as a
+   * retried tool call result that is neither reported as an error nor does it trigger fail-fast.
+   *
+   * @param toolCall The tool call to run
+   * @return {@code true} if the tool call succeeded, else {@code false}
+   */
+  public boolean attempt(Call<?> toolCall) {
+    return run(toolCall, true);
+  }
+
+  private boolean run(Call<?> toolCall, boolean attempt) {
     var call = configuration().tweak().apply(toolCall);
 
     var logbook = configuration().logbook();
     logbook.log(Level.INFO, call.toDescriptiveLine());
     logbook.log(Level.DEBUG, call.toCommandLine());
 
-    var provider = call.findProvider();
+    if (cancellation != null) {
+      var message = logbook.log(Level.DEBUG, "Skip %s - build is cancelled", call.name());
+      throw new CancellationException(message + ": " + cancellation);
+    }
+
+    var provider = findProvider(call);
     if (provider.isEmpty()) {
       var message = logbook.log(Level.ERROR, "Tool provider with name '%s' not found", call.name());
       if (is(Flag.FAIL_FAST)) throw new AssertionError(message);
-      return;
+      return false;
     }
 
-    if (is(Flag.DRY_RUN)) return;
+    if (is(Flag.DRY_RUN)) return true;
+
+    var key = is(Flag.USE_BUILD_CACHE) ? computeBuildCacheKey(call) : null;
+    if (key != null && restoreFromBuildCache(call, key)) return true;
 
     var tool = provider.get();
     var currentThread = Thread.currentThread();
     var currentContextLoader = currentThread.getContextClassLoader();
     currentThread.setContextClassLoader(tool.getClass().getClassLoader());
-    var out = new StringWriter();
-    var err = new StringWriter();
+    var spill = project().base().workspace("logbook");
+    var out = logbook.newToolOutputWriter(spill, call.name() + "-out");
+    var err = logbook.newToolOutputWriter(spill, call.name() + "-err");
     var args = call.toStringArray();
-    var start = Instant.now();
+    toolThreads.add(currentThread);
+    ResourceLimiter.Lease lease = null;
 
     try {
-      var code = tool.run(new PrintWriter(out), new PrintWriter(err), args);
+      lease = acquireResources(tool.name());
+      var start = Instant.now();
+      var code = run(tool, out, err, args);
+      out.close();
+      err.close();
 
       var duration = Duration.between(start, Instant.now());
-      var normal = out.toString().strip();
-      var errors = err.toString().strip();
-      var result = logbook.add(call, normal, errors, duration, code);
+      var cancelled = code != 0 && cancellation != null;
+      var result =
+          cancelled
+              ? logbook.addCancelled(call, out, err, duration, code)
+              : attempt && code != 0
+                  ? logbook.addRetried(call, out, err, duration, code)
+                  : key == null
+                      ? logbook.add(call, out, err, duration, code)
+                      : logbook.addCacheMiss(call, out, err, duration, code);
       logbook.log(Level.DEBUG, "%s finished after %d ms", tool.name(), duration.toMillis());
 
-      if (code == 0) return;
+      if (code == 0) {
+        if (key != null) storeInBuildCache(key);
+        return true;
+      }
+      if (cancelled) throw newCancellationException(tool.name());
+      if (attempt) {
+        logbook.log(Level.WARNING, "%s failed with exit code %d", tool.name(), code);
+        return false;
+      }
 
       var caption = logbook.log(Level.ERROR, "%s failed with exit code %d", tool.name(), code);
       var message = new StringJoiner(System.lineSeparator());
       message.add(caption);
       result.toStrings().forEach(message::add);
-      if (is(Flag.FAIL_FAST)) throw new AssertionError(message);
+      if (is(Flag.FAIL_FAST)) {
+        cancel(caption);
+        throw new AssertionError(message);
+      }
+    } catch (CancellationException exception) {
+      throw exception;
     } catch (RuntimeException exception) {
-      logbook.log(Level.ERROR, "%s failed throwing %s", tool.name(), exception);
-      if (is(Flag.FAIL_FAST)) throw exception;
+      if (cancellation != null) throw newCancellationException(tool.name());
+      if (attempt) {
+        logbook.log(Level.WARNING, "%s failed throwing %s", tool.name(), exception);
+        return false;
+      }
+      var caption = logbook.log(Level.ERROR, "%s failed throwing %s", tool.name(), exception);
+      if (is(Flag.FAIL_FAST)) {
+        cancel(caption);
+        throw exception;
+      }
     } finally {
+      toolThreads.remove(currentThread);
+      if (cancellation != null) Thread.interrupted(); // clear a late cancellation request
+      if (lease != null) lease.close();
+      out.close();
+      err.close();
       currentThread.setContextClassLoader(currentContextLoader);
     }
+    return false;
+  }
+
+  /**
+   * Cancel running and pending tool calls after a tool call failed with fail-fast enabled.
+   *
+   * <p>Threads running tools in-process are interrupted, which tools may or may not react to in a
+   * cooperative manner. Forked test worker processes are destroyed. Tool calls not started yet
+   * are skipped by throwing a {@link CancellationException}. Results of tool calls that fail after
+   * the cancellation are recorded as cancelled, not as errors.
+   */
+  private void cancel(String reason) {
+    synchronized (this) {
+      if (cancellation != null) return;
+      cancellation = reason;
+      if (testWorkerPool != null) testWorkerPool.close();
+    }
+    var logbook = configuration().logbook();
+    logbook.log(Level.DEBUG, "Cancel %d running tool call(s)", toolThreads.size() - 1);
+    var current = Thread.currentThread();
+    for (var thread : toolThreads) if (thread != current) thread.interrupt();
+  }
+
+  private CancellationException newCancellationException(String name) {
+    var message = configuration().logbook().log(Level.INFO, "%s cancelled", name);
+    return new CancellationException(message + " - " + cancellation);
   }
 
   public void run(Runnable... runnables) {
@@ -256,8 +378,199 @@ public class Bach {
     run(consumer, Function.identity(), collection);
   }
 
+  /**
+   * Map all elements and pass them to the consumer on this instance's fork-join pool.
+   *
+   * <p>The pool has as many threads as the configured parallelism and is not shared with other
+   * parallel streams running in the same virtual machine.
+   */
   public <E, T> void run(Consumer<T> consumer, Function<E, T> mapper, Collection<E> collection) {
-    collection.stream().parallel().map(mapper).forEach(consumer);
+    Runnable runnable = () -> collection.stream().parallel().map(mapper).forEach(consumer);
+    var executor = executor();
+    if (ForkJoinTask.getPool() == executor) runnable.run();
+    else executor.submit(runnable).join();
+  }
+
+  /**
+   * Return the tool provider that runs the given call.
+   *
+   * <p>Tools provided by test modules are found in module layers that are reused by this instance
+   * while module paths are unchanged, and evicted when a build ends.
+   */
+  public Optional<ToolProvider> findProvider(Call<?> call) {
+    if (is(Flag.RUN_TESTS_IN_FORKED_WORKERS)) {
+      if (call instanceof TestModule) {
+        var test = (TestModule) call;
+        var name = "test(" + test.module() + ")";
+        return Optional.of(testWorkerPool().provider(name, test.module(), test.modulePaths()));
+      }
+      if (call instanceof JUnit) {
+        var junit = (JUnit) call;
+        var name = junit.name();
+        return Optional.of(testWorkerPool().provider(name, junit.module(), junit.modulePaths()));
+      }
+    }
+    if (call instanceof TestModule) {
+      var test = (TestModule) call;
+      return findTool("test(" + test.module() + ")", test.module(), test.modulePaths());
+    }
+    if (call instanceof JUnit) {
+      var junit = (JUnit) call;
+      var console = findTool(junit.name(), junit.module(), junit.modulePaths());
+      if (is(Flag.RECORD_TEST_EVENTS)) {
+        var listener = configuration().logbook().newTestListener(junit.module());
+        return console.map(tool -> new JUnitLauncher(tool, listener));
+      }
+      return console;
+    }
+    return call.findProvider();
+  }
+
+  private Optional<ToolProvider> findTool(String name, String module, List<Path> modulePaths) {
+    return moduleLayers().findTools(module, modulePaths).stream()
+        .filter(provider -> provider.name().equals(name))
+        .findAny();
+  }
+
+  private synchronized ModuleLayers moduleLayers() {
+    if (moduleLayers == null) {
+      var spaces = project().spaces();
+      var units = spaces.test().units().size() + spaces.preview().units().size();
+      moduleLayers = new ModuleLayers(Math.max(1, 2 * units)); // test module and JUnit per unit
+    }
+    return moduleLayers;
+  }
+
+  private synchronized void clearModuleLayers() {
+    if (moduleLayers == null) return;
+    moduleLayers.clear();
+    moduleLayers = null;
+  }
+
+  private synchronized TestWorkerPool testWorkerPool() {
+    if (testWorkerPool == null) {
+      var spaces = project().spaces();
+      var units = spaces.test().units().size() + spaces.preview().units().size();
+      var size = Math.min(configuration().limits().parallelism(), units);
+      testWorkerPool = new TestWorkerPool(TestWorkerPool.command(), size);
+    }
+    return testWorkerPool;
+  }
+
+  private synchronized void closeTestWorkerPool() {
+    if (testWorkerPool == null) return;
+    testWorkerPool.close();
+    testWorkerPool = null;
+  }
+
+  private synchronized void shutdownExecutor() {
+    if (executor == null) return;
+    executor.shutdown();
+    executor = null;
+  }
+
+  private synchronized ForkJoinPool executor() {
+    if (executor == null) executor = new ForkJoinPool(configuration().limits().parallelism());
+    return executor;
+  }
+
+  private synchronized ResourceLimiter resourceLimiter() {
+    if (resourceLimiter == null) {
+      var limits = configuration().limits();
+      var parallelism = limits.parallelism();
+      var permits = limits.permits();
+      var memory = limits.memory();
+      resourceLimiter = new ResourceLimiter(parallelism, permits, memory, limits.demands());
+    }
+    return resourceLimiter;
+  }
+
+  private ResourceLimiter.Lease acquireResources(String tool) {
+    var start = Instant.now();
+    try {
+      var lease = resourceLimiter().acquire(tool);
+      var millis = Duration.between(start, Instant.now()).toMillis();
+      if (millis > 0) configuration().logbook().log(Level.DEBUG, "%s waited %d ms", tool, millis);
+      return lease;
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to run " + tool, exception);
+    }
+  }
+
+  private int run(ToolProvider tool, Writer out, Writer err, String... args) {
+    var compilation = tool.name().equals("javac") && JavaCompilerRunner.isCompilation(args);
+    if (compilation && is(Flag.USE_JAVA_COMPILER_API)) {
+      return javaCompilerRunner().run(out, err, args);
+    }
+    if (Daemon.TOOLS.contains(tool.name())) {
+      var connection = daemon();
+      if (connection.isPresent()) {
+        try {
+          return connection.get().run(tool.name(), out, err, args);
+        } catch (IOException exception) {
+          disconnectDaemon();
+          var logbook = configuration().logbook();
+          logbook.log(Level.WARNING, "Daemon not reachable, running in-process: %s", exception);
+        }
+      }
+    }
+    return tool.run(new PrintWriter(out), new PrintWriter(err), args);
+  }
+
+  private synchronized JavaCompilerRunner javaCompilerRunner() {
+    if (javaCompilerRunner == null) javaCompilerRunner = new JavaCompilerRunner();
+    return javaCompilerRunner;
+  }
+
+  private synchronized Optional<Daemon.Connection> daemon() {
+    if (daemon == null) daemon = Daemon.find(Daemon.file(project().base().workspace()));
+    return daemon;
+  }
+
+  private synchronized void disconnectDaemon() {
+    daemon = Optional.empty();
+  }
+
+  private synchronized BuildCache buildCache() {
+    if (buildCache == null) {
+      var remote = RemoteBuildCache.ofSystem(http());
+      buildCache = new BuildCache(BuildCache.ofSystemDirectory(), remote);
+    }
+    return buildCache;
+  }
+
+  private BuildCache.Key computeBuildCacheKey(Call<?> call) {
+    try {
+      return buildCache().computeKey(call).orElse(null);
+    } catch (RuntimeException exception) {
+      configuration().logbook().log(Level.WARNING, "Build cache not used: %s", exception);
+      return null;
+    }
+  }
+
+  private boolean restoreFromBuildCache(Call<?> call, BuildCache.Key key) {
+    var logbook = configuration().logbook();
+    var start = Instant.now();
+    try {
+      var bytes = buildCache().restore(key);
+      if (bytes.isEmpty()) return false;
+      var duration = Duration.between(start, Instant.now());
+      logbook.addCacheHit(call, bytes.get(), duration);
+      logbook.log(Level.DEBUG, "%s outputs restored from build cache %s", call.name(), key.hash());
+      return true;
+    } catch (RuntimeException exception) {
+      logbook.log(Level.WARNING, "Restore from build cache failed: %s", exception);
+      return false;
+    }
+  }
+
+  private void storeInBuildCache(BuildCache.Key key) {
+    try {
+      buildCache().store(key);
+    } catch (RuntimeException exception) {
+      configuration().logbook().log(Level.WARNING, "Store in build cache failed: %s", exception);
+    }
   }
 
   @Override
@@ -21,8 +21,11 @@ import de.sormuras.bach.internal.Factory;
 import de.sormuras.bach.internal.Factory.Kind;
 import java.lang.System.Logger.Level;
 import java.util.EnumSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
 
 /** A configuration record. */
 public final class Configuration {
@@ -30,11 +33,17 @@ public final class Configuration {
   private final Flags flags;
   private final Logbook logbook;
   private final Tweak tweak;
+  private final Limits limits;
 
   public Configuration(Flags flags, Logbook logbook, Tweak tweak) {
+    this(flags, logbook, tweak, Limits.ofSystem());
+  }
+
+  public Configuration(Flags flags, Logbook logbook, Tweak tweak, Limits limits) {
     this.flags = flags;
     this.logbook = logbook;
     this.tweak = tweak;
+    this.limits = limits;
   }
 
   public Flags flags() {
@@ -49,28 +58,38 @@ public final class Configuration {
     return tweak;
   }
 
+  public Limits limits() {
+    return limits;
+  }
+
   //
   // Configuration API
   //
 
   @Factory
   public static Configuration ofSystem() {
-    return new Configuration(Flags.ofSystem(), Logbook.ofSystem(), Tweak.identity());
+    var flags = Flags.ofSystem();
+    return new Configuration(flags, Logbook.ofSystem(), Tweak.identity(), Limits.ofSystem());
   }
 
   @Factory(Kind.SETTER)
   public Configuration flags(Flags flags) {
-    return new Configuration(flags, logbook, tweak);
+    return new Configuration(flags, logbook, tweak, limits);
   }
 
   @Factory(Kind.SETTER)
   public Configuration logbook(Logbook logbook) {
-    return new Configuration(flags, logbook, tweak);
+    return new Configuration(flags, logbook, tweak, limits);
   }
 
   @Factory(Kind.SETTER)
   public Configuration tweak(Tweak tweak) {
-    return new Configuration(flags, logbook, tweak);
+    return new Configuration(flags, logbook, tweak, limits);
+  }
+
+  @Factory(Kind.SETTER)
+  public Configuration limits(Limits limits) {
+    return new Configuration(flags, logbook, tweak, limits);
   }
 
   @Factory(Kind.OPERATOR)
@@ -131,4 +150,139 @@ public final class Configuration {
       return set(flags);
     }
   }
+
+  /** Bounds of resources used by concurrently running tools. */
+  public static class Limits {
+
+    private static final long MIB = 1024 * 1024;
+
+    private final int parallelism;
+    private final Map<String, Integer> permits;
+    private final long memory;
+    private final Map<String, Long> demands;
+    private final int requests;
+
+    private static final int DEFAULT_REQUESTS = 16;
+
+    /**
+     * Create limits for running tools, with up to 16 HTTP requests in flight at the same time.
+     *
+     * @param parallelism The maximum number of tools running at the same time
+     * @param permits The maximum numbers of concurrent runs per tool name
+     * @param memory The memory budget in bytes shared by all running tools
+     * @param demands The memory in bytes a run of a tool is expected to use, per tool name
+     */
+    public Limits(
+        int parallelism, Map<String, Integer> permits, long memory, Map<String, Long> demands) {
+      this(parallelism, permits, memory, demands, DEFAULT_REQUESTS);
+    }
+
+    /**
+     * Create limits for running tools and downloading files.
+     *
+     * @param parallelism The maximum number of tools running at the same time
+     * @param permits The maximum numbers of concurrent runs per tool name
+     * @param memory The memory budget in bytes shared by all running tools
+     * @param demands The memory in bytes a run of a tool is expected to use, per tool name
+     * @param requests The maximum number of HTTP requests in flight at the same time
+     */
+    public Limits(
+        int parallelism,
+        Map<String, Integer> permits,
+        long memory,
+        Map<String, Long> demands,
+        int requests) {
+      this.parallelism = parallelism;
+      this.permits = Map.copyOf(permits);
+      this.memory = memory;
+      this.demands = Map.copyOf(demands);
+      this.requests = requests;
+    }
+
+    public int parallelism() {
+      return parallelism;
+    }
+
+    public Map<String, Integer> permits() {
+      return permits;
+    }
+
+    public long memory() {
+      return memory;
+    }
+
+    public Map<String, Long> demands() {
+      return demands;
+    }
+
+    public int requests() {
+      return requests;
+    }
+
+    /**
+     * Return limits read from system properties.
+     *
+     * <ul>
+     *   <li>{@code bach.limits.parallelism} defaults to the number of available processors
+     *   <li>{@code bach.limits.permits} defaults to {@code javadoc=1,jlink=1}
+     *   <li>{@code bach.limits.memory} in MiB defaults to the maximum heap size
+     *   <li>{@code bach.limits.demands} in MiB defaults to {@code javac=256,javadoc=512,jlink=256}
+     *   <li>{@code bach.limits.requests} defaults to 16
+     * </ul>
+     */
+    @Factory
+    public static Limits ofSystem() {
+      var runtime = Runtime.getRuntime();
+      var processors = String.valueOf(runtime.availableProcessors());
+      var parallelism = Integer.parseInt(System.getProperty("bach.limits.parallelism", processors));
+      var permits = System.getProperty("bach.limits.permits", "javadoc=1,jlink=1");
+      var heap = String.valueOf(runtime.maxMemory() / MIB);
+      var memory = Long.parseLong(System.getProperty("bach.limits.memory", heap)) * MIB;
+      var demands = System.getProperty("bach.limits.demands", "javac=256,javadoc=512,jlink=256");
+      Function<String, Long> mebibytes = value -> Long.parseLong(value) * MIB;
+      var defaultRequests = String.valueOf(DEFAULT_REQUESTS);
+      var requests = Integer.parseInt(System.getProperty("bach.limits.requests", defaultRequests));
+      return new Limits(
+          parallelism,
+          parse(permits, Integer::parseInt),
+          memory,
+          parse(demands, mebibytes),
+          requests);
+    }
+
+    private static <V> Map<String, V> parse(String string, Function<String, V> parser) {
+      var map = new TreeMap<String, V>();
+      for (var element : string.split(",")) {
+        if (element.isBlank()) continue;
+        var pair = element.split("=", 2);
+        map.put(pair[0].strip(), parser.apply(pair[1].strip()));
+      }
+      return map;
+    }
+
+    @Factory(Kind.SETTER)
+    public Limits parallelism(int parallelism) {
+      return new Limits(parallelism, permits, memory, demands, requests);
+    }
+
+    @Factory(Kind.SETTER)
+    public Limits permits(Map<String, Integer> permits) {
+      return new Limits(parallelism, permits, memory, demands, requests);
+    }
+
+    @Factory(Kind.SETTER)
+    public Limits memory(long memory) {
+      return new Limits(parallelism, permits, memory, demands, requests);
+    }
+
+    @Factory(Kind.SETTER)
+    public Limits demands(Map<String, Long> demands) {
+      return new Limits(parallelism, permits, memory, demands, requests);
+    }
+
+    @Factory(Kind.SETTER)
+    public Limits requests(int requests) {
+      return new Limits(parallelism, permits, memory, demands, requests);
+    }
+  }
 }
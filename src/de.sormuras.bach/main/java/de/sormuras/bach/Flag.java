@@ -23,6 +23,17 @@ public enum Flag {
   FAIL_FAST(true),
   FAIL_ON_ERROR(true),
 
+  COMPILE_MAIN_MODULES_SEPARATELY(false),
+  USE_BUILD_CACHE(false),
+  USE_MODULE_REPOSITORY(false),
+  WRITE_MODULES_LOCK_FILE(false),
+  USE_JAVA_COMPILER_API(false),
+  RUN_TEST_MODULES_IN_PARALLEL(false),
+  RUN_TESTS_IN_FORKED_WORKERS(false),
+  RUN_ALL_TESTS(false),
+  SELECT_AFFECTED_TEST_CLASSES(false),
+  RECORD_TEST_EVENTS(false),
+
   SUMMARY_WITH_TOOL_CALL_OVERVIEW(true),
   SUMMARY_WITH_MAIN_MODULE_OVERVIEW(true),
   SUMMARY_LINES_UNCUT(false);
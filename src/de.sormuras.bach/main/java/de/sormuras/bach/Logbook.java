@@ -19,8 +19,15 @@ package de.sormuras.bach;
 
 import de.sormuras.bach.internal.Factory;
 import de.sormuras.bach.internal.Factory.Kind;
+import de.sormuras.bach.internal.JUnitLauncher;
 import de.sormuras.bach.internal.Markdown;
 import de.sormuras.bach.internal.Paths;
+import de.sormuras.bach.internal.Profile;
+import de.sormuras.bach.internal.SpillingWriter;
+import de.sormuras.bach.internal.TestShard;
+import de.sormuras.bach.project.CodeSpace;
+import de.sormuras.bach.tool.JUnit;
+import de.sormuras.bach.tool.TestModule;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.System.Logger.Level;
@@ -32,11 +39,15 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.spi.ToolProvider;
 import java.util.stream.Collectors;
@@ -44,6 +55,15 @@ import java.util.stream.Collectors;
 /** A logbook records textual log entries of all levels and also records tool call results. */
 public final class Logbook {
 
+  /** Number of lines kept in memory for both, the head and the tail of a tool's output. */
+  static final int OUTPUT_LINES_KEPT = 100;
+
+  /** Number of tests listed in the table of the slowest tests. */
+  static final int SLOWEST_TESTS_LISTED = 20;
+
+  /** Number of rows listed in each table of the profile. */
+  static final int PROFILE_ROWS_LISTED = 20;
+
   @Factory
   public static Logbook ofSystem() {
     var debug = Boolean.getBoolean("ebug") || "".equals(System.getProperty("ebug"));
@@ -54,6 +74,8 @@ public final class Logbook {
   private final LocalDateTime created = LocalDateTime.now(ZoneOffset.UTC);
   private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
   private final Queue<Result> results = new ConcurrentLinkedQueue<>();
+  private final Queue<TestResult> tests = new ConcurrentLinkedQueue<>();
+  private final AtomicLong outputs = new AtomicLong();
   private final Consumer<String> printer;
   private final Level threshold;
 
@@ -84,6 +106,12 @@ public final class Logbook {
     return level.getSeverity() < threshold.getSeverity();
   }
 
+  /** Return {@code true} if an error entry was logged or a tool call result reported an error. */
+  public boolean hasErrors() {
+    var errorLogged = entries.stream().anyMatch(entry -> entry.level == Level.ERROR);
+    return errorLogged || results.stream().anyMatch(Result::isError);
+  }
+
   public String log(Level level, String format, Object... arguments) {
     return log(level, String.format(format, arguments));
   }
@@ -122,17 +150,109 @@ public final class Logbook {
     print(String.format(format, args));
   }
 
-  Result add(Call<?> call, String out, String err, Duration duration, int code) {
+  /**
+   * Return a writer that streams lines of tool output to the printer at trace level.
+   *
+   * <p>Only the first and the last {@value #OUTPUT_LINES_KEPT} lines are kept in memory. Output
+   * exceeding those limits is spilled to a file in the given directory, which is emptied when the
+   * first writer of this logbook is created.
+   *
+   * @param directory The directory to spill lines of large tool output into
+   * @param name The name of the tool output stream
+   * @return A new writer
+   */
+  synchronized SpillingWriter newToolOutputWriter(Path directory, String name) {
+    if (outputs.getAndIncrement() == 0) Paths.deleteDirectories(directory);
+    var file = directory.resolve(String.format("%04d-%s.txt", outputs.get(), name));
+    return new SpillingWriter(file, OUTPUT_LINES_KEPT, line -> log(Level.TRACE, line, false));
+  }
+
+  Result add(Call<?> call, SpillingWriter out, SpillingWriter err, Duration duration, int code) {
+    return add(call, ' ', 0, out.toString().strip(), err.toString().strip(), duration, code);
+  }
+
+  Result addCacheMiss(
+      Call<?> call, SpillingWriter out, SpillingWriter err, Duration duration, int code) {
+    return add(call, 'M', 0, out.toString().strip(), err.toString().strip(), duration, code);
+  }
+
+  Result addRetried(
+      Call<?> call, SpillingWriter out, SpillingWriter err, Duration duration, int code) {
+    return add(call, 'R', 0, out.toString().strip(), err.toString().strip(), duration, code);
+  }
+
+  Result addCancelled(
+      Call<?> call, SpillingWriter out, SpillingWriter err, Duration duration, int code) {
+    return add(call, 'C', 0, out.toString().strip(), err.toString().strip(), duration, code);
+  }
+
+  Result addCacheHit(Call<?> call, long bytes, Duration duration) {
+    var out = String.format("Restored %,d bytes from build cache", bytes);
+    log(Level.TRACE, out, false);
+    return add(call, 'H', bytes, out, "", duration, 0);
+  }
+
+  private Result add(
+      Call<?> call, char kind, long bytes, String out, String err, Duration duration, int code) {
     var thread = Thread.currentThread().getId();
     var tool = call.name();
     var args = call.toStringArray();
-    var result = new Result(thread, tool, args, out, err, duration, code);
+    var module =
+        call instanceof JUnit
+            ? ((JUnit) call).module()
+            : call instanceof TestModule ? ((TestModule) call).module() : "";
+    var result = new Result(thread, kind, bytes, tool, module, args, out, err, duration, code);
     results.add(result);
-    log(Level.TRACE, out, false);
-    log(Level.TRACE, err, false);
     return result;
   }
 
+  /**
+   * Return a listener that records test execution events of a module as they happen.
+   *
+   * <p>Started tests are logged at trace level. Finished tests are logged with their duration at
+   * debug level if they passed or were skipped, and at warning level otherwise.
+   */
+  JUnitLauncher.Listener newTestListener(String module) {
+    return new JUnitLauncher.Listener() {
+      @Override
+      public void testStarted(String name) {
+        log(Level.TRACE, "Test %s of module %s started", name, module);
+      }
+
+      @Override
+      public void testFinished(String type, String name, String status, Duration duration) {
+        var thread = Thread.currentThread().getId();
+        tests.add(new TestResult(thread, module, type, name, status, duration));
+        var passed = status.equals("SUCCESSFUL") || status.equals("SKIPPED");
+        var millis = duration.toMillis();
+        var message = "Test %s of module %s %s after %d ms";
+        log(passed ? Level.DEBUG : Level.WARNING, message, name, module, status, millis);
+      }
+    };
+  }
+
+  /**
+   * Return total durations of top-level test classes of a module recorded from test events.
+   *
+   * <p>Only the last recorded duration of each test counts, so retried tests are not summed up.
+   *
+   * @param module The name of the test module
+   * @return A map of binary names of top-level classes to total durations in milliseconds
+   */
+  public Map<String, Long> toTestClassDurations(String module) {
+    var last = new TreeMap<String, TestResult>();
+    for (var test : tests) {
+      if (test.module.equals(module) && !test.type.isEmpty()) last.put(test.name, test);
+    }
+    var durations = new TreeMap<String, Long>();
+    for (var test : last.values()) {
+      var nested = test.type.indexOf('$');
+      var topLevel = nested < 0 ? test.type : test.type.substring(0, nested);
+      durations.merge(topLevel, test.duration.toMillis(), Long::sum);
+    }
+    return durations;
+  }
+
   public List<String> toMarkdown(Project project) {
     var md = new ArrayList<String>();
     var formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
@@ -143,6 +263,8 @@ public final class Logbook {
     md.addAll(projectModules(project.base().modules("")));
     md.addAll(projectDescription(project));
     md.addAll(toToolCallOverview());
+    md.addAll(toProfile(project));
+    md.addAll(toSlowestTests());
     md.addAll(toToolCallDetails());
     md.addAll(toLogbookEntries());
     md.add("");
@@ -216,7 +338,7 @@ public final class Logbook {
     md.add("|    |Thread| Duration |Tool|Arguments");
     md.add("|----|-----:|---------:|----|---------");
     for (var call : results) {
-      var kind = ' ';
+      var kind = call.kind;
       var thread = call.thread;
       var millis = toString(call.duration);
       var tool = "[" + call.tool + "](#" + call.toDetailedCaption() + ")";
@@ -224,6 +346,94 @@ public final class Logbook {
       var row = String.format("|%4c|%6X|%10s|%s|%s", kind, thread, millis, tool, arguments);
       md.add(row);
     }
+    toBuildCacheSummary().ifPresent(summary -> md.addAll(List.of("", summary)));
+    return md;
+  }
+
+  /** Return a line with numbers of build cache hits, misses, and bytes restored, if used. */
+  private Optional<String> toBuildCacheSummary() {
+    long hits = 0, misses = 0, bytes = 0;
+    for (var result : results) {
+      if (result.kind == 'H') hits++;
+      if (result.kind == 'M') misses++;
+      bytes += result.bytes;
+    }
+    if (hits + misses == 0) return Optional.empty();
+    var format = "Build cache: %d hit%s, %d miss%s, %,d bytes restored";
+    var s = hits == 1 ? "" : "s";
+    var es = misses == 1 ? "" : "es";
+    return Optional.of(String.format(format, hits, s, misses, es, bytes));
+  }
+
+  /**
+   * Return tables of the slowest test modules and test classes, if any test tool was called.
+   *
+   * <p>Each row shows the share of the total build duration, which may be exceeded by the sum of
+   * durations of tools running in parallel, and the trend against the previous logbooks. The number
+   * of previous logbooks to compare with is read from the {@code bach.logbook.trend-depth} system
+   * property and defaults to 5.
+   */
+  private List<String> toProfile(Project project) {
+    var modules = new TreeMap<String, Long>();
+    for (var result : results) {
+      if (result.module.isEmpty()) continue;
+      modules.merge(result.module, result.duration.toMillis(), Long::sum);
+    }
+    if (modules.isEmpty()) return List.of();
+    var classes = new TreeMap<String, Long>();
+    for (var module : modules.keySet()) classes.putAll(toTestClassDurations(project, module));
+    var total = Duration.between(created, LocalDateTime.now(ZoneOffset.UTC));
+    var depth = Integer.getInteger("bach.logbook.trend-depth", 5);
+    var history = Profile.history(project.base().workspace("logbooks"), depth);
+    var md = new ArrayList<String>();
+    md.add("");
+    md.add("## Profile");
+    md.add("");
+    var format = "Build took %s, trends compare with the average of %d previous logbook(s).";
+    md.add(String.format(format, toString(total), history.size()));
+    var limit = PROFILE_ROWS_LISTED;
+    for (var heading : List.of("Slowest Test Modules", "Slowest Test Classes")) {
+      var durations = heading.endsWith("Modules") ? modules : classes;
+      var previous = Profile.read(history, heading);
+      md.addAll(Profile.table(heading, durations, total.toMillis(), previous, limit));
+    }
+    return md;
+  }
+
+  /** Return durations of test classes recorded from test events or read from JUnit reports. */
+  private Map<String, Long> toTestClassDurations(Project project, String module) {
+    var durations = toTestClassDurations(module);
+    if (!durations.isEmpty()) return durations;
+    var spaces = project.spaces();
+    for (var space : List.<CodeSpace<?>>of(spaces.test(), spaces.preview())) {
+      if (space.units().findUnit(module).isEmpty()) continue;
+      var reports = project.base().reports("junit-" + space.name(), module);
+      durations.putAll(TestShard.readJUnitReports(reports));
+    }
+    return durations;
+  }
+
+  /** Return a table of the slowest tests recorded from test events, if any. */
+  private List<String> toSlowestTests() {
+    if (tests.isEmpty()) return List.of();
+    var statuses = new TreeMap<String, Integer>();
+    for (var test : tests) statuses.merge(test.status, 1, Integer::sum);
+    var md = new ArrayList<String>();
+    md.add("");
+    md.add("## Slowest Tests");
+    md.add("");
+    md.add(String.format("Recorded %d test results: %s", tests.size(), statuses));
+    md.add("");
+    md.add("|Thread| Duration |Status|Module|Test");
+    md.add("|-----:|---------:|------|------|----");
+    var slowest = new ArrayList<>(tests);
+    slowest.sort(Comparator.comparing((TestResult test) -> test.duration).reversed());
+    for (var test : slowest.subList(0, Math.min(SLOWEST_TESTS_LISTED, slowest.size()))) {
+      var thread = test.thread;
+      var millis = toString(test.duration);
+      var name = "`" + test.name + "`";
+      md.add(String.format("|%6X|%10s|%s|%s|%s", thread, millis, test.status, test.module, name));
+    }
     return md;
   }
 
@@ -319,6 +529,7 @@ public final class Logbook {
     }
     print(String.format("%10s %10s", "  --------", "----------"));
     print(String.format("%10s %10s", toString(total), results.size() + " calls"));
+    toBuildCacheSummary().ifPresent(this::print);
   }
 
   public void printSummaryOfModules(Path directory) {
@@ -384,7 +595,10 @@ public final class Logbook {
   /** A tool call result. */
   static final class Result {
     private final long thread;
+    private final char kind;
+    private final long bytes;
     private final String tool;
+    private final String module;
     private final String[] args;
     private final String out;
     private final String err;
@@ -393,14 +607,20 @@ public final class Logbook {
 
     Result(
         long thread,
+        char kind,
+        long bytes,
         String tool,
+        String module,
         String[] args,
         String out,
         String err,
         Duration duration,
         int code) {
       this.thread = thread;
+      this.kind = kind;
+      this.bytes = bytes;
       this.tool = tool;
+      this.module = module;
       this.args = args;
       this.out = out;
       this.err = err;
@@ -409,7 +629,7 @@ public final class Logbook {
     }
 
     public boolean isError() {
-      return code != 0;
+      return code != 0 && kind != 'R' && kind != 'C';
     }
 
     public String toDetailedCaption() {
@@ -432,4 +652,24 @@ public final class Logbook {
       return message;
     }
   }
+
+  /** A test execution result. */
+  static final class TestResult {
+    private final long thread;
+    private final String module;
+    private final String type;
+    private final String name;
+    private final String status;
+    private final Duration duration;
+
+    TestResult(
+        long thread, String module, String type, String name, String status, Duration duration) {
+      this.thread = thread;
+      this.module = module;
+      this.type = type;
+      this.name = name;
+      this.status = status;
+      this.duration = duration;
+    }
+  }
 }
@@ -17,8 +17,14 @@
 
 package de.sormuras.bach;
 
+import de.sormuras.bach.internal.Daemon;
+import de.sormuras.bach.internal.Fingerprint;
+import de.sormuras.bach.internal.Fingerprints;
 import de.sormuras.bach.internal.Paths;
+import de.sormuras.bach.internal.TestShard;
 import de.sormuras.bach.project.Base;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.module.ModuleDescriptor;
 import java.lang.module.ModuleFinder;
@@ -54,11 +60,15 @@ public final class Main {
   }
 
   public int run(String... args) {
-    if (args.length == 0) {
+    var actions = new ArrayDeque<String>();
+    for (var arg : args) {
+      if (arg.startsWith("--")) option(arg);
+      else actions.add(arg);
+    }
+    if (actions.isEmpty()) {
       build();
       return 0;
     }
-    var actions = new ArrayDeque<>(List.of(args));
     while (actions.size() > 0) {
       var action = actions.removeFirst();
       switch (action) {
@@ -68,6 +78,9 @@ public final class Main {
         case "clean":
           Paths.deleteDirectories(WORKSPACE);
           break;
+        case "daemon":
+          daemon();
+          break;
         case "help":
           help();
           break;
@@ -84,6 +97,16 @@ public final class Main {
     return 0;
   }
 
+  /** Apply an option given before, between, or after action names. */
+  private void option(String option) {
+    if (option.startsWith("--shard=")) {
+      var shard = TestShard.of(option.substring("--shard=".length()));
+      System.setProperty("bach.test.shard", shard.toString());
+      return;
+    }
+    throw new IllegalArgumentException("Unknown option: " + option);
+  }
+
   public void build() {
     var logbook = Logbook.ofSystem().printer(out::println);
     var configuration = Configuration.ofSystem().logbook(logbook);
@@ -101,8 +124,7 @@ public final class Main {
               .withModulePath(System.getProperty("jdk.module.path"))
               .with("-d", classes);
       try {
-        int code = javac.run();
-        if (code != 0) throw new AssertionError("Non-zero exit code: " + code);
+        compile(javac, classes);
         var roots = Set.of("build");
         var finder = ModuleFinder.of(classes);
         var parent = ClassLoader.getPlatformClassLoader();
@@ -125,17 +147,64 @@ public final class Main {
     new Bach(configuration, project).build();
   }
 
+  private void compile(Call<?> javac, Path classes) throws Exception {
+    var fingerprints = new Fingerprints(classes.getParent());
+    var fingerprint =
+        new Fingerprint()
+            .add(Bach.VERSION.toString())
+            .add(javac.toCommandLine())
+            .addTree(Path.of(".bach/src"));
+    var modulePath = System.getProperty("jdk.module.path", "");
+    for (var element : modulePath.split(File.pathSeparator)) {
+      if (element.isEmpty()) continue;
+      var path = Path.of(element);
+      if (Files.isDirectory(path)) fingerprint.addTree(path);
+      else if (Files.isRegularFile(path)) fingerprint.addFile(path);
+    }
+    var hash = fingerprint.toHexString();
+    if (Files.isDirectory(classes) && fingerprints.load("build").equals(Optional.of(hash))) return;
+    out.println("> " + javac.toCommandLine());
+    var connection = Daemon.find(Daemon.file(WORKSPACE));
+    int code = -1;
+    if (connection.isPresent()) {
+      try {
+        code = connection.get().run(javac.name(), out, err, javac.toStringArray());
+      } catch (IOException exception) {
+        err.println("Daemon not reachable, running in-process: " + exception);
+      }
+    }
+    if (code == -1) code = javac.findProvider().orElseThrow().run(out, err, javac.toStringArray());
+    if (code != 0) throw new AssertionError("Non-zero exit code: " + code);
+    fingerprints.store("build", hash);
+  }
+
+  public void daemon() {
+    try (var daemon = Daemon.start(Daemon.file(WORKSPACE))) {
+      out.printf("Bach daemon listening on port %d%n", daemon.port());
+      out.printf("Delete %s to stop it%n", Daemon.file(WORKSPACE));
+      daemon.awaitTermination();
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   public void help() {
-    out.println("Usage: bach [actions...]");
+    out.println("Usage: bach [options...] [actions...]");
 
     out.println();
     out.println("Supported actions");
     out.format("\t%-9s Build modular Java project%n", "build");
     out.format("\t%-9s Delete workspace directory (%s) recursively%n", "clean", WORKSPACE);
+    out.format("\t%-9s Run JDK tools for builds in this directory in a warm JVM%n", "daemon");
     out.format("\t%-9s Print this help screen%n", "help");
     out.format("\t%-9s Scan current working directory and print project information%n", "info");
     out.format("\t%-9s Print version to the output stream%n", "version");
 
+    out.println();
+    out.println("Supported options");
+    var shard = "Run only test items assigned to shard I of N, for example: --shard=1/3";
+    out.format("\t%-9s %s%n", "--shard=I/N", shard);
+
     out.println();
     out.println("Provided tools");
     ServiceLoader.load(ToolProvider.class).stream()
@@ -19,11 +19,22 @@ package de.sormuras.bach.action;
 
 import de.sormuras.bach.Bach;
 import de.sormuras.bach.Call;
+import de.sormuras.bach.Flag;
+import de.sormuras.bach.internal.Fingerprint;
+import de.sormuras.bach.internal.Fingerprints;
+import de.sormuras.bach.internal.Paths;
 import de.sormuras.bach.project.CodeSpace;
 import de.sormuras.bach.project.CodeUnit;
 import de.sormuras.bach.tool.Jar;
 import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Function;
 
 /** An abstract action with basic build support. */
 abstract class BuildCodeSpace<T> implements Action {
@@ -63,6 +74,139 @@ abstract class BuildCodeSpace<T> implements Action {
 
   abstract void buildModules();
 
+  /** Return a runnable that executes the given build step if this space contains code units. */
+  Runnable step(Runnable step) {
+    return () -> {
+      if (space.units().isEmpty()) return;
+      step.run();
+    };
+  }
+
+  /** Return the store of fingerprints recorded for the units of this space. */
+  Fingerprints fingerprints() {
+    return new Fingerprints(base().workspace("fingerprints", space.title()));
+  }
+
+  /**
+   * Compute the fingerprints of all units of this space.
+   *
+   * @param calls The function that computes the compile and package calls of a unit
+   * @param modulePath JAR files or directories containing JAR files read by the unit
+   * @return A map of module names to fingerprints that also cover the units' required units
+   * @see #computeInputFingerprints(Function, Path...)
+   */
+  Map<String, String> computeFingerprints(
+      Function<CodeUnit, List<Call<?>>> calls, Path... modulePath) {
+    var units = space.units();
+    var inputs = computeInputFingerprints(calls, modulePath);
+    var fingerprints = new TreeMap<String, String>();
+    for (var unit : units.toUnitsInRequiresOrder()) {
+      var fingerprint = new Fingerprint().add(inputs.get(unit.name()));
+      for (var required : units.toRequiredNames(unit)) fingerprint.add(fingerprints.get(required));
+      fingerprints.put(unit.name(), fingerprint.toHexString());
+    }
+    return fingerprints;
+  }
+
+  /**
+   * Compute fingerprints of the inputs of all units of this space.
+   *
+   * <p>A fingerprint of a unit covers the project descriptor, the effective arguments of the given
+   * tool calls, all source and resource files of the unit, and all JAR files found on the given
+   * module path. It does not cover other units of this space.
+   *
+   * @param calls The function that computes the compile and package calls of a unit
+   * @param modulePath JAR files or directories containing JAR files read by the unit
+   * @return A map of module names to hexadecimal fingerprints
+   */
+  Map<String, String> computeInputFingerprints(
+      Function<CodeUnit, List<Call<?>>> calls, Path... modulePath) {
+    var tweak = bach.configuration().tweak();
+    var common = new Fingerprint().add(Bach.VERSION.toString()).add(Runtime.version().toString());
+    common.add(project().toStrings());
+    for (var element : modulePath) common.addJars(element);
+    var prefix = common.toHexString();
+    var fingerprints = new TreeMap<String, String>();
+    for (var unit : space.units().toUnits().toArray(CodeUnit[]::new)) {
+      var fingerprint = new Fingerprint().add(prefix);
+      for (var call : calls.apply(unit)) fingerprint.add(tweak.apply(call).toCommand());
+      for (var folder : unit.sources().list()) fingerprint.addTree(folder.path());
+      for (var resource : unit.resources()) fingerprint.addTree(resource);
+      fingerprints.put(unit.name(), fingerprint.toHexString());
+    }
+    return fingerprints;
+  }
+
+  /** Return paths to files and directories that building the given unit creates. */
+  List<Path> computeOutputPaths(CodeUnit unit) {
+    var module = unit.name();
+    return List.of(
+        base().classes(space.name(), space.release().feature(), module),
+        project().toModuleArchive(space.name(), module));
+  }
+
+  /** Return {@code true} if all units of this space are up-to-date and log why if not. */
+  boolean isUpToDate(Map<String, String> fingerprints) {
+    var upToDate = true;
+    for (var unit : space.units().toUnits().toArray(CodeUnit[]::new)) {
+      var reason = findReasonToBuild(unit, fingerprints.get(unit.name()));
+      if (reason.isEmpty()) continue;
+      log(Level.DEBUG, "Build %s module %s - %s", space.title(), unit.name(), reason.get());
+      upToDate = false;
+    }
+    if (upToDate) {
+      var names = space.units().toNames(", ");
+      var message = "Skip %s modules %s - inputs unchanged since last build";
+      log(Level.INFO, message, space.title(), names);
+    }
+    return upToDate;
+  }
+
+  /** Return {@code true} if the given unit is up-to-date and log why it is or is not. */
+  boolean isUpToDate(CodeUnit unit, String fingerprint) {
+    var module = unit.name();
+    var reason = findReasonToBuild(unit, fingerprint);
+    if (reason.isPresent()) {
+      log(Level.DEBUG, "Build %s module %s - %s", space.title(), module, reason.get());
+      return false;
+    }
+    log(Level.INFO, "Skip %s module %s - inputs unchanged since last build", space.title(), module);
+    return true;
+  }
+
+  private Optional<String> findReasonToBuild(CodeUnit unit, String fingerprint) {
+    var recorded = fingerprints().load(unit.name());
+    if (recorded.isEmpty()) return Optional.of("no fingerprint recorded");
+    if (!recorded.get().equals(fingerprint)) return Optional.of("inputs changed");
+    for (var output : computeOutputPaths(unit)) {
+      if (Files.notExists(output)) return Optional.of("output missing: " + output);
+    }
+    return Optional.empty();
+  }
+
+  /** Delete classes directories of all units, so that no stale class file is packaged. */
+  void deleteClassesDirectories() {
+    for (var unit : space.units().toUnits().toArray(CodeUnit[]::new)) {
+      deleteClassesDirectories(unit);
+    }
+  }
+
+  /** Delete classes directories of the given unit, so that no stale class file is packaged. */
+  void deleteClassesDirectories(CodeUnit unit) {
+    var module = unit.name();
+    Paths.deleteDirectories(base().classes(space.name(), space.release().feature(), module));
+    if (!unit.sources().isMultiTarget()) return;
+    for (var folder : unit.sources().list()) {
+      Paths.deleteDirectories(base().classes(space.name(), folder.release(), module));
+    }
+  }
+
+  /** Record the fingerprint of a unit unless this is a dry run or an error was logged. */
+  void storeFingerprint(String module, String fingerprint) {
+    if (bach.is(Flag.DRY_RUN) || bach.configuration().logbook().hasErrors()) return;
+    fingerprints().store(module, fingerprint);
+  }
+
   public Jar computeJarCall(CodeUnit unit) {
     var module = unit.name();
     var archive = project().toModuleArchive(space.name(), module);
@@ -19,7 +19,14 @@ package de.sormuras.bach.action;
 
 import de.sormuras.bach.Bach;
 import de.sormuras.bach.Call;
+import de.sormuras.bach.Flag;
+import de.sormuras.bach.internal.Fingerprint;
+import de.sormuras.bach.internal.Fingerprints;
+import de.sormuras.bach.internal.Modules;
 import de.sormuras.bach.internal.Paths;
+import de.sormuras.bach.internal.TestClasses;
+import de.sormuras.bach.internal.TestQuarantine;
+import de.sormuras.bach.internal.TestShard;
 import de.sormuras.bach.project.CodeSpace;
 import de.sormuras.bach.project.CodeUnit;
 import de.sormuras.bach.tool.JUnit;
@@ -27,7 +34,20 @@ import de.sormuras.bach.tool.Javac;
 import de.sormuras.bach.tool.TestModule;
 import java.lang.System.Logger.Level;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.spi.ToolProvider;
+import java.util.stream.Collectors;
 
 /** An abstract action with test-realm specific build support. */
 abstract class BuildTestCodeSpace<R> extends BuildCodeSpace<R> {
@@ -44,28 +64,443 @@ abstract class BuildTestCodeSpace<R> extends BuildCodeSpace<R> {
 
   @Override
   void buildModules() {
-    bach().run(computeJavacCall());
+    var javac = computeJavacCall();
+    var fingerprints =
+        computeFingerprints(
+            unit -> List.of(javac, computeJarCall(unit)), computeModulePathsForCompileTime());
+    if (isUpToDate(fingerprints)) return;
+
+    fingerprints.keySet().forEach(fingerprints()::remove);
+    deleteClassesDirectories();
+    bach().run(javac);
     Paths.createDirectories(base().modules(space().name()));
     bach().run(bach()::run, this::computeJarCall, space().units().map().values());
+    fingerprints.forEach(this::storeFingerprint);
   }
 
+  /**
+   * Execute tests of all modules that are affected by changes since the last green build.
+   *
+   * <p>A test module is affected if its own inputs, external modules, or the recorded fingerprint
+   * of any module it transitively depends on in this or an upstream space changed. Skipped modules
+   * are logged. With {@link Flag#RUN_ALL_TESTS} set, all modules are executed.
+   *
+   * <p>With {@link Flag#RUN_TEST_MODULES_IN_PARALLEL} set, modules are executed concurrently, each
+   * in its own module layer and with its own reports directory. Modules listed in the
+   * comma-separated {@code bach.test.sequential-modules} system property are not parallel-safe:
+   * they are executed one after the other after all other modules.
+   *
+   * <p>With {@link Flag#RUN_TESTS_IN_FORKED_WORKERS} set, test tools are run in a pool of reusable
+   * worker processes instead of module layers of this virtual machine. Otherwise, with {@link
+   * Flag#RECORD_TEST_EVENTS} set, the JUnit Platform is launched via its launcher API and test
+   * execution events are recorded in the logbook as they happen.
+   *
+   * <p>With a {@code bach.test.shard=INDEX/COUNT} system property set, only the test items assigned
+   * to that shard are executed, balanced by durations recorded in previous unsharded runs. Test
+   * items of all modules are assigned, affected by changes or not.
+   *
+   * @see TestShard
+   */
   public void buildReportsByExecutingModules() {
-    space().units().toUnits().forEach(this::buildReportsByExecutingModule);
+    var impacts = computeImpactFingerprints();
+    var shard = TestShard.ofSystem();
+    // all shards have to assign the same items, no matter what was tested before on their machine
+    var units =
+        shard.isPresent()
+            ? space().units().toUnits().collect(Collectors.toList())
+            : computeAffectedUnits(impacts);
+    var history = TestShard.loadDurations(computeDurationsFile());
+    var assignments = new TreeMap<String, Set<String>>();
+    shard.ifPresent(it -> assignments.putAll(computeShardAssignments(it, units, history)));
+    Consumer<CodeUnit> execute =
+        unit -> {
+          if (shard.isPresent()) {
+            buildReportsByExecutingShard(unit, assignments.get(unit.name()));
+            return;
+          }
+          tested().remove(unit.name());
+          if (!buildReportsByExecutingModule(unit)) return; // failures were ignored
+          impacts.get(unit.name()).ifPresent(impact -> storeTested(unit.name(), impact));
+        };
+    executeModules(execute, units, computeSequentialModuleNames());
+    // all shards have to compute their assignments from the same history
+    if (shard.isEmpty()) storeDurations(units, history);
+  }
+
+  /**
+   * Return all units whose impact fingerprint differs from the one recorded after their tests last
+   * passed, or all units if {@link Flag#RUN_ALL_TESTS} is set, and log skipped units.
+   */
+  List<CodeUnit> computeAffectedUnits(Map<String, Optional<String>> impacts) {
+    var units = new ArrayList<CodeUnit>();
+    for (var unit : space().units().toUnits().toArray(CodeUnit[]::new)) {
+      var module = unit.name();
+      var impact = impacts.get(module);
+      var unchanged = impact.isPresent() && impact.equals(tested().load(module));
+      if (unchanged && bach().not(Flag.RUN_ALL_TESTS)) {
+        var message = "Skip tests of %s module %s - not affected by changes since last green build";
+        log(Level.INFO, message, space().title(), module);
+        continue;
+      }
+      units.add(unit);
+    }
+    return units;
+  }
+
+  /** Return the file that stores durations of test items of this space. */
+  Path computeDurationsFile() {
+    return base().workspace("durations", space().title());
+  }
+
+  /**
+   * Update durations of test classes of the given units.
+   *
+   * <p>Durations recorded from test events in the logbook are preferred over durations read from
+   * JUnit reports.
+   *
+   * @see Flag#RECORD_TEST_EVENTS
+   */
+  void storeDurations(List<CodeUnit> units, Map<String, Long> history) {
+    if (bach().is(Flag.DRY_RUN)) return;
+    for (var unit : units) {
+      var module = unit.name();
+      var durations = bach().configuration().logbook().toTestClassDurations(module);
+      if (durations.isEmpty()) {
+        var reports = base().reports("junit-" + space().name(), module);
+        durations = TestShard.readJUnitReports(reports);
+      }
+      durations.forEach((name, millis) -> history.put(module + '/' + name, millis));
+    }
+    TestShard.storeDurations(computeDurationsFile(), history);
   }
 
-  public void buildReportsByExecutingModule(CodeUnit unit) {
+  /**
+   * Assign test items of the given units to shards and return the items of the given shard.
+   *
+   * <p>A test item is either the {@code test(MODULE)} tool or a top-level test class of a module.
+   *
+   * @return A map of module names to names of test items assigned to the shard
+   */
+  Map<String, Set<String>> computeShardAssignments(
+      TestShard shard, List<CodeUnit> units, Map<String, Long> history) {
+    var items = new TreeSet<String>();
+    for (var unit : units) {
+      var module = unit.name();
+      items.add(module + "/test(" + module + ")");
+      for (var name : computeTestClassNames(unit)) items.add(module + '/' + name);
+    }
+    var selected = shard.select(items, history);
+    var message = "Run %d of %d test items of %s space in shard %s";
+    log(Level.INFO, message, selected.size(), items.size(), space().title(), shard);
+    var assignments = new TreeMap<String, Set<String>>();
+    for (var unit : units) assignments.put(unit.name(), new TreeSet<>());
+    for (var item : selected) {
+      var separator = item.indexOf('/');
+      assignments.get(item.substring(0, separator)).add(item.substring(separator + 1));
+    }
+    return assignments;
+  }
+
+  /** Execute the given test items of a module, as assigned to the current shard. */
+  void buildReportsByExecutingShard(CodeUnit unit, Set<String> items) {
+    var module = unit.name();
+    var modulePaths = Paths.retainExisting(computeModulePathsForRuntime(unit));
+
+    log(Level.DEBUG, "Run %s of '%s' with module-path: %s", items, module, modulePaths);
+
+    var testModule = new TestModule(module, modulePaths);
+    var classes = new ArrayList<String>(items);
+    var test = classes.remove("test(" + module + ")");
+    if (test && isProvidingTestModule(testModule)) bach().run(testModule);
+
+    if (classes.isEmpty()) return;
+    var junitCall = computeJUnitCall(unit, modulePaths, classes);
+    if (isProvidingJUnit(junitCall)) buildReportsByExecutingJUnit(unit, junitCall);
+  }
+
+  /** Return the store of fingerprints recorded for test modules after their tests passed. */
+  Fingerprints tested() {
+    return new Fingerprints(base().workspace("fingerprints", "tested", space().title()));
+  }
+
+  /** Record the impact fingerprint of a test module unless this is a dry run or errors occurred. */
+  void storeTested(String module, String fingerprint) {
+    if (bach().is(Flag.DRY_RUN) || bach().configuration().logbook().hasErrors()) return;
+    tested().store(module, fingerprint);
+  }
+
+  /**
+   * Compute impact fingerprints of all units of this space.
+   *
+   * <p>An impact fingerprint covers the inputs of a unit and of all units of this space it requires
+   * directly or indirectly, and the recorded fingerprints of all modules of upstream spaces that it
+   * requires directly or indirectly, including the module it patches. It is empty if any of the
+   * upstream modules has no recorded fingerprint.
+   *
+   * @return A map of module names to optional hexadecimal fingerprints
+   */
+  Map<String, Optional<String>> computeImpactFingerprints() {
+    var javac = computeJavacCall();
+    var inputs =
+        computeInputFingerprints(unit -> List.of(javac, computeJarCall(unit)), base().libraries());
+    var upstreams = computeUpstreamSpaces();
+    var fingerprints = new TreeMap<String, Optional<String>>();
+    for (var unit : space().units().toUnits().toArray(CodeUnit[]::new)) {
+      fingerprints.put(unit.name(), computeImpactFingerprint(unit, inputs, upstreams));
+    }
+    return fingerprints;
+  }
+
+  private Optional<String> computeImpactFingerprint(
+      CodeUnit unit, Map<String, String> inputs, List<CodeSpace<?>> upstreams) {
+    var fingerprint = new Fingerprint();
+    var visited = new TreeSet<String>();
+    var pending = new ArrayDeque<String>();
+    pending.add(unit.name());
+    while (!pending.isEmpty()) {
+      var name = pending.pop();
+      if (!visited.add(name)) continue;
+      var local = space().units().findUnit(name);
+      if (local.isPresent()) {
+        fingerprint.add(space().title() + ':' + name).add(inputs.get(name));
+        pending.addAll(Modules.required(local.get().descriptor()));
+      }
+      for (var upstream : upstreams) {
+        var found = upstream.units().findUnit(name);
+        if (found.isEmpty()) continue;
+        var store = new Fingerprints(base().workspace("fingerprints", upstream.title()));
+        var recorded = store.load(name);
+        if (recorded.isEmpty()) return Optional.empty();
+        fingerprint.add(upstream.title() + ':' + name).add(recorded.get());
+        pending.addAll(Modules.required(found.get().descriptor()));
+      }
+    }
+    return Optional.of(fingerprint.toHexString());
+  }
+
+  /** Return the spaces whose modules may be read by modules of this space. */
+  public abstract List<CodeSpace<?>> computeUpstreamSpaces();
+
+  /**
+   * Pass the given units to the consumer, concurrently if test modules are to be run in parallel.
+   *
+   * @param execute The consumer that executes tests of a unit
+   * @param units The units to execute
+   * @param sequential Names of modules that are executed one after the other after all others
+   */
+  void executeModules(Consumer<CodeUnit> execute, List<CodeUnit> units, Set<String> sequential) {
+    if (bach().not(Flag.RUN_TEST_MODULES_IN_PARALLEL)) {
+      units.forEach(execute);
+      return;
+    }
+    var parallel = new ArrayList<CodeUnit>();
+    for (var unit : units) if (!sequential.contains(unit.name())) parallel.add(unit);
+    bach().run(execute, parallel);
+    for (var unit : units) {
+      if (sequential.contains(unit.name())) execute.accept(unit);
+    }
+  }
+
+  Set<String> computeSequentialModuleNames() {
+    var names = System.getProperty("bach.test.sequential-modules", "");
+    return Arrays.stream(names.split(",")).map(String::strip).collect(Collectors.toSet());
+  }
+
+  /**
+   * Execute tests of a module.
+   *
+   * @return {@code false} if failures of quarantined tests were ignored, else {@code true}
+   */
+  public boolean buildReportsByExecutingModule(CodeUnit unit) {
     var module = unit.name();
     var modulePaths = Paths.retainExisting(computeModulePathsForRuntime(unit));
 
     log(Level.DEBUG, "Run tests in '%s' with module-path: %s", module, modulePaths);
 
     var testModule = new TestModule(module, modulePaths);
-    if (testModule.findProvider().isPresent()) bach().run(testModule);
+    if (isProvidingTestModule(testModule)) bach().run(testModule);
+
+    if (!isProvidingJUnit(computeJUnitCall(unit, modulePaths))) return true;
+    return buildReportsByExecutingJUnit(unit, modulePaths);
+  }
+
+  /**
+   * Return {@code true} if the test module provides a tool.
+   *
+   * <p>With {@link Flag#RUN_TESTS_IN_FORKED_WORKERS} set, this is decided by the module descriptor
+   * without loading any class in this virtual machine.
+   */
+  boolean isProvidingTestModule(TestModule testModule) {
+    if (bach().not(Flag.RUN_TESTS_IN_FORKED_WORKERS)) {
+      return bach().findProvider(testModule).isPresent();
+    }
+    var module = testModule.module();
+    var configuration = Modules.resolve(module, testModule.modulePaths());
+    var descriptor = configuration.findModule(module).orElseThrow().reference().descriptor();
+    var service = ToolProvider.class.getName();
+    return descriptor.provides().stream().anyMatch(provides -> provides.service().equals(service));
+  }
+
+  /**
+   * Return {@code true} if the JUnit Platform launcher is available.
+   *
+   * <p>With {@link Flag#RUN_TESTS_IN_FORKED_WORKERS} set, this is decided by resolving modules
+   * without loading any class in this virtual machine.
+   */
+  boolean isProvidingJUnit(JUnit junit) {
+    if (bach().not(Flag.RUN_TESTS_IN_FORKED_WORKERS)) return bach().findProvider(junit).isPresent();
+    var configuration = Modules.resolve(junit.module(), junit.modulePaths());
+    return configuration.findModule("org.junit.platform.console").isPresent();
+  }
+
+  /**
+   * Launch the JUnit Platform for a test module.
+   *
+   * <p>With {@link Flag#SELECT_AFFECTED_TEST_CLASSES} set, only test classes whose fingerprint
+   * changed since their tests last passed are selected. The entire module is selected if no
+   * fingerprints were recorded or if {@link Flag#RUN_ALL_TESTS} is set.
+   *
+   * @return {@code false} if failures of quarantined tests were ignored, else {@code true}
+   * @see TestClasses
+   */
+  boolean buildReportsByExecutingJUnit(CodeUnit unit, List<Path> modulePaths) {
+    if (bach().not(Flag.SELECT_AFFECTED_TEST_CLASSES)) {
+      return buildReportsByExecutingJUnit(unit, computeJUnitCall(unit, modulePaths));
+    }
+    var module = unit.name();
+    var file = base().workspace("fingerprints", "classes", space().title(), module);
+    var recorded = TestClasses.load(file);
+    var current = computeTestClassFingerprints(unit);
+    var affected = new ArrayList<String>();
+    for (var entry : current.entrySet()) {
+      if (!entry.getValue().equals(recorded.get(entry.getKey()))) affected.add(entry.getKey());
+    }
+    var entire = recorded.isEmpty() || bach().is(Flag.RUN_ALL_TESTS);
+    if (!entire && affected.isEmpty()) {
+      var message = "Skip JUnit in %s module %s - no test class affected";
+      log(Level.INFO, message, space().title(), module);
+      return true;
+    }
+    TestClasses.store(file, Map.of()); // forget recorded fingerprints until tests passed again
+    var selection = entire ? "all" : affected.toString();
+    log(Level.DEBUG, "Select %s of %d test classes in %s", selection, current.size(), module);
+    var junit = computeJUnitCall(unit, modulePaths, entire ? List.of() : affected);
+    if (!buildReportsByExecutingJUnit(unit, junit)) return false;
+    if (bach().is(Flag.DRY_RUN) || bach().configuration().logbook().hasErrors()) return true;
+    TestClasses.store(file, current);
+    return true;
+  }
+
+  /**
+   * Launch the JUnit Platform and retry failed tests.
+   *
+   * <p>With a {@code bach.test.retries=COUNT} system property set to a positive number, tests that
+   * failed according to the JUnit reports are launched again, up to COUNT times. Only the failed
+   * test methods are selected, or their classes if a method can't be selected. A retry writes its
+   * reports into a {@code retry-N} subdirectory of the module's reports directory. Only the last
+   * retry reports its failure as an error, failures of previous launches are logged as warnings.
+   *
+   * <p>A test that passes when retried is flaky and its number of flips is recorded in a quarantine
+   * list of the module in the workspace. If the tests still failing before the last retry are all
+   * quarantined, their failure is logged as a warning instead of an error and {@code false} is
+   * returned: the module is not considered to be green. Each time a quarantined test passes at its
+   * first launch, its number of flips is decremented and it is released from quarantine when no
+   * flip is left.
+   *
+   * @return {@code false} if failures of quarantined tests were ignored, else {@code true}
+   * @see TestQuarantine
+   */
+  boolean buildReportsByExecutingJUnit(CodeUnit unit, JUnit junit) {
+    var retries = Integer.getInteger("bach.test.retries", 0);
+    if (retries < 1 || bach().is(Flag.DRY_RUN)) {
+      bach().run(junit);
+      return true;
+    }
+    var module = unit.name();
+    var reports = base().reports("junit-" + space().name(), module);
+    var file = base().workspace("quarantine", space().title(), module);
+    var quarantine = TestQuarantine.load(file);
+    var first = bach().attempt(junit);
+    if (first && quarantine.isEmpty()) return true;
+    var outcomes = TestQuarantine.readOutcomes(reports);
+    if (!quarantine.isEmpty()) {
+      for (var test : TestQuarantine.decay(quarantine, outcomes)) {
+        log(Level.INFO, "Release test %s of module %s from quarantine", test, module);
+      }
+      TestQuarantine.store(file, quarantine);
+    }
+    if (first) return true;
+    var failures = new TreeSet<String>();
+    for (var retry = 1; retry <= retries; retry++) {
+      failures.clear();
+      for (var entry : outcomes.entrySet()) if (!entry.getValue()) failures.add(entry.getKey());
+      if (failures.isEmpty()) {
+        log(Level.WARNING, "No failed test reported by JUnit in module %s, retry all", module);
+        bach().run(junit);
+        return true;
+      }
+      var directory = reports.resolve("retry-" + retry);
+      var call = computeJUnitCall(unit, junit.modulePaths(), failures, directory);
+      var quarantined = quarantine.keySet().containsAll(failures);
+      var message = "Retry %d failed test(s) of module %s, attempt %d of %d";
+      log(Level.INFO, message, failures.size(), module, retry, retries);
+      var start = Instant.now();
+      var passed = true;
+      if (retry == retries && !quarantined) bach().run(call);
+      else passed = bach().attempt(call);
+      var millis = Duration.between(start, Instant.now()).toMillis();
+      log(Level.INFO, "Retry %d of module %s took %d ms", retry, module, millis);
+      outcomes = TestQuarantine.readOutcomes(directory);
+      for (var test : failures) {
+        if (!outcomes.getOrDefault(test, false)) continue;
+        var flips = quarantine.merge(test, 1, Integer::sum);
+        var flaky = "Quarantine flaky test %s of module %s - passed when retried, %d flip(s)";
+        log(Level.WARNING, flaky, test, module, flips);
+      }
+      TestQuarantine.store(file, quarantine);
+      if (passed) return true;
+    }
+    log(Level.WARNING, "Ignore failures of quarantined tests in module %s: %s", module, failures);
+    return false;
+  }
 
-    var junitCall = computeJUnitCall(unit, modulePaths);
-    if (junitCall.findProvider().isPresent()) {
-      bach().run(junitCall);
+  /** Compute fingerprints of the top-level test classes of the given unit. */
+  Map<String, String> computeTestClassFingerprints(CodeUnit unit) {
+    var common = new Fingerprint().add(Bach.VERSION.toString()).add(Runtime.version().toString());
+    common.add(computeJUnitCall(unit, List.of()).toCommand()).addJars(base().libraries());
+    for (var resource : unit.resources()) common.addTree(resource);
+    var spaces = new ArrayList<CodeSpace<?>>(computeUpstreamSpaces());
+    spaces.add(space());
+    for (var upstream : spaces) {
+      for (var other : upstream.units().toUnits().toArray(CodeUnit[]::new)) {
+        if (other == unit) continue;
+        for (var resource : other.resources()) common.addTree(resource);
+      }
     }
+    var classes = base().classes(space().name(), space().release().feature(), unit.name());
+    var directories = computeClassDirectories(unit);
+    return TestClasses.fingerprints(classes, directories, common.toHexString());
+  }
+
+  /** Return the binary names of the top-level test classes of the given unit. */
+  Set<String> computeTestClassNames(CodeUnit unit) {
+    var classes = base().classes(space().name(), space().release().feature(), unit.name());
+    return TestClasses.list(classes, computeClassDirectories(unit));
+  }
+
+  /** Return class directories of all units of upstream spaces and other units of this space. */
+  List<Path> computeClassDirectories(CodeUnit unit) {
+    var directories = new ArrayList<Path>();
+    var spaces = new ArrayList<CodeSpace<?>>(computeUpstreamSpaces());
+    spaces.add(space());
+    for (var upstream : spaces) {
+      var release = upstream.release().feature();
+      for (var other : upstream.units().toUnits().toArray(CodeUnit[]::new)) {
+        if (other == unit) continue;
+        directories.add(base().classes(upstream.name(), release, other.name()));
+      }
+    }
+    return directories;
   }
 
   public Javac computeJavacCall() {
@@ -91,10 +526,44 @@ abstract class BuildTestCodeSpace<R> extends BuildCodeSpace<R> {
   public abstract Path[] computeModulePathsForRuntime(CodeUnit unit);
 
   public JUnit computeJUnitCall(CodeUnit unit, List<Path> modulePaths) {
+    return computeJUnitCall(unit, modulePaths, List.of());
+  }
+
+  /**
+   * Compute a JUnit Platform launcher call for a test module.
+   *
+   * @param unit The test module
+   * @param modulePaths The module paths to launch the JUnit Platform with
+   * @param classes The names of the test classes to select, an empty list selects the module
+   * @return A JUnit call
+   */
+  public JUnit computeJUnitCall(CodeUnit unit, List<Path> modulePaths, List<String> classes) {
     var module = unit.name();
     return new JUnit(module, modulePaths, List.of())
-        .with("--select-module", module)
+        .with(classes.isEmpty(), "--select-module", module)
+        .with(classes, (junit, name) -> junit.with("--select-class", name))
         .with("--disable-ansi-colors")
         .with("--reports-dir", base().reports("junit-" + space().name(), module));
   }
+
+  /**
+   * Compute a JUnit Platform launcher call that retries tests of a module.
+   *
+   * @param unit The test module
+   * @param modulePaths The module paths to launch the JUnit Platform with
+   * @param tests The selectors of test methods in {@code CLASS#METHOD} form or of test classes
+   * @param reports The directory to write reports into
+   * @return A JUnit call
+   */
+  public JUnit computeJUnitCall(
+      CodeUnit unit, List<Path> modulePaths, Set<String> tests, Path reports) {
+    return new JUnit(unit.name(), modulePaths, List.of())
+        .with(tests, (junit, test) -> junit.with(toSelectOption(test), test))
+        .with("--disable-ansi-colors")
+        .with("--reports-dir", reports);
+  }
+
+  private static String toSelectOption(String test) {
+    return test.indexOf('#') < 0 ? "--select-class" : "--select-method";
+  }
 }
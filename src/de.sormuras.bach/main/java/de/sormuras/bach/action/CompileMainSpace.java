@@ -19,8 +19,12 @@ package de.sormuras.bach.action;
 
 import de.sormuras.bach.Bach;
 import de.sormuras.bach.Call;
+import de.sormuras.bach.Flag;
+import de.sormuras.bach.internal.Fingerprint;
+import de.sormuras.bach.internal.ModuleApi;
 import de.sormuras.bach.internal.Modules;
 import de.sormuras.bach.internal.Paths;
+import de.sormuras.bach.internal.Scheduler;
 import de.sormuras.bach.project.CodeUnit;
 import de.sormuras.bach.project.Feature;
 import de.sormuras.bach.project.MainSpace;
@@ -29,10 +33,13 @@ import de.sormuras.bach.tool.Javac;
 import de.sormuras.bach.tool.Javadoc;
 import de.sormuras.bach.tool.Jlink;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -51,7 +58,18 @@ public class CompileMainSpace extends BuildCodeSpace<MainSpace> {
   }
 
   public void buildMainModules() {
+    if (bach().is(Flag.COMPILE_MAIN_MODULES_SEPARATELY)) {
+      buildMainModulesSeparately();
+      return;
+    }
+
     var javacCall = computeJavacCall();
+    var fingerprints =
+        computeFingerprints(unit -> computeFingerprintCalls(unit, javacCall), base().libraries());
+    if (isUpToDate(fingerprints)) return;
+
+    fingerprints.keySet().forEach(fingerprints()::remove);
+    deleteClassesDirectories();
     bach().run(javacCall);
 
     var modules = base().modules("");
@@ -66,6 +84,126 @@ public class CompileMainSpace extends BuildCodeSpace<MainSpace> {
       jars.add(single ? computeJarForMainModule(unit) : buildMultiReleaseModule(unit));
     }
     bach().run(bach()::run, jars);
+    fingerprints.forEach(this::storeFingerprint);
+  }
+
+  /**
+   * Compile each main module with its own javac call and package it as soon as it is compiled.
+   *
+   * <p>A module is compiled as soon as all modules it requires are compiled. Its modular JAR file
+   * is created while modules that require it are being compiled. A module is neither compiled nor
+   * packaged again, if its own inputs and the APIs of all modules it requires are unchanged. Thus,
+   * changing an implementation detail of a module doesn't lead to recompiling modules requiring it.
+   */
+  public void buildMainModulesSeparately() {
+    var units = main().units();
+    var inputs =
+        computeInputFingerprints(
+            unit -> computeFingerprintCalls(unit, computeJavacCall(unit)), base().libraries());
+
+    var modules = base().modules("");
+    var archives = units.toNames().map(name -> project().toModuleArchive("", name));
+    var current = archives.collect(Collectors.toSet());
+    if (Files.isDirectory(modules)) {
+      Paths.deleteDirectories(modules, path -> Paths.isJarFile(path) && !current.contains(path));
+    }
+    Paths.createDirectories(modules);
+    Paths.createDirectories(base().sources(""));
+
+    var apis = new ConcurrentHashMap<String, String>();
+    var changes = new ConcurrentHashMap<String, String>();
+    var compilations = new ArrayList<String>();
+    var multiReleaseUnits = new ArrayList<CodeUnit>();
+    var scheduler = new Scheduler();
+    for (var unit : units.toUnitsInRequiresOrder()) {
+      var module = unit.name();
+      var input = inputs.get(module);
+      var requires = new ArrayList<String>();
+      for (var required : units.toRequiredNames(unit)) requires.add("javac:" + required);
+      var javac = "javac:" + module;
+      var sources = "sources:" + module;
+      var sourcesJar = computeJarCallForMainSources(unit);
+      scheduler.add(javac, () -> compileMainModule(unit, input, apis, changes), requires);
+      scheduler.add(sources, () -> runIfChanged(module, changes, sourcesJar), javac);
+      compilations.add(javac);
+      if (unit.sources().isMultiTarget()) {
+        multiReleaseUnits.add(unit);
+        continue;
+      }
+      var jar = "jar:" + module;
+      var moduleJar = computeJarForMainModule(unit);
+      scheduler.add(jar, () -> runIfChanged(module, changes, moduleJar), javac);
+      var store = "fingerprint:" + module;
+      scheduler.add(store, () -> storeChanges(module, changes, apis), jar, sources);
+    }
+    // targeted compilations put the entire base release directory on their module path
+    for (var unit : multiReleaseUnits) {
+      var module = unit.name();
+      var jar = "jar:" + module;
+      scheduler.add(jar, () -> buildMultiReleaseModuleIfChanged(unit, changes), compilations);
+      var store = "fingerprint:" + module;
+      scheduler.add(store, () -> storeChanges(module, changes, apis), jar, "sources:" + module);
+    }
+    scheduler.run(bach().configuration().limits().parallelism());
+  }
+
+  /**
+   * Compile a main module unless its own inputs and the APIs of the modules it requires are
+   * unchanged since the last build.
+   *
+   * @param unit The unit to compile
+   * @param input The fingerprint of the unit's own inputs
+   * @param apis The API fingerprints of modules compiled so far, this module's is put into it
+   * @param changes The fingerprints of modules that were compiled, this module's is put into it
+   */
+  void compileMainModule(
+      CodeUnit unit, String input, Map<String, String> apis, Map<String, String> changes) {
+    var module = unit.name();
+    var fingerprint = new Fingerprint().add(input);
+    for (var required : main().units().toRequiredNamesClosure(unit)) {
+      fingerprint.add(required).add(apis.get(required));
+    }
+    var hex = fingerprint.toHexString();
+    var classes = base().classes("", main().release().feature(), module);
+    if (isUpToDate(unit, hex)) {
+      var api = fingerprints().load(module + ".api");
+      apis.put(module, api.orElseGet(() -> ModuleApi.fingerprint(classes)));
+      return;
+    }
+    fingerprints().remove(module);
+    changes.put(module, hex);
+    deleteClassesDirectories(unit);
+    bach().run(computeJavacCall(unit));
+    apis.put(module, ModuleApi.fingerprint(classes));
+  }
+
+  private void runIfChanged(String module, Map<String, String> changes, Call<?> call) {
+    if (changes.containsKey(module)) bach().run(call);
+  }
+
+  private void buildMultiReleaseModuleIfChanged(CodeUnit unit, Map<String, String> changes) {
+    if (changes.containsKey(unit.name())) bach().run(buildMultiReleaseModule(unit));
+  }
+
+  private void storeChanges(String module, Map<String, String> changes, Map<String, String> apis) {
+    if (!changes.containsKey(module)) return;
+    storeFingerprint(module + ".api", apis.get(module));
+    storeFingerprint(module, changes.get(module));
+  }
+
+  List<Call<?>> computeFingerprintCalls(CodeUnit unit, Javac javac) {
+    var calls = new ArrayList<Call<?>>();
+    calls.add(javac);
+    calls.add(computeJarCallForMainSources(unit));
+    if (!unit.sources().isMultiTarget()) calls.add(computeJarForMainModule(unit));
+    return calls;
+  }
+
+  @Override
+  List<Path> computeOutputPaths(CodeUnit unit) {
+    var paths = new ArrayList<>(super.computeOutputPaths(unit));
+    paths.add(project().toMainSourceArchive(unit.name()));
+    return paths;
   }
 
   public Jar buildMultiReleaseModule(CodeUnit unit) {
@@ -167,6 +305,26 @@ public class CompileMainSpace extends BuildCodeSpace<MainSpace> {
         .with("-d", base().classes("", release));
   }
 
+  public Javac computeJavacCall(CodeUnit unit) {
+    var release = main().release().feature();
+    var classes = base().classes("", release);
+    var upstream = main().units().toRequiredNamesClosure(unit);
+    var modulePaths = new ArrayList<Path>();
+    for (var name : upstream) modulePaths.add(classes.resolve(name));
+    if (Files.isDirectory(base().libraries())) modulePaths.add(base().libraries());
+    return Call.javac()
+        .withModule(unit.name())
+        .with("--module-version", project().version())
+        .withModuleSourcePath(unit.name() + '=' + unit.sources().toModuleSpecificSourcePath())
+        .with(!modulePaths.isEmpty(), "--module-path", Paths.join(modulePaths))
+        .withEncoding("UTF-8")
+        .with("-parameters")
+        .withRecommendedWarnings()
+        .with("-Werror")
+        .with("--release", release)
+        .with("-d", classes);
+  }
+
   public Jar computeJarCallForMainSources(CodeUnit unit) {
     var sources = new ArrayDeque<>(unit.sources().list());
     var jar =
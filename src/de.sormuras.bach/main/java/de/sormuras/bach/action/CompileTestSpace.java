@@ -18,9 +18,11 @@
 package de.sormuras.bach.action;
 
 import de.sormuras.bach.Bach;
+import de.sormuras.bach.project.CodeSpace;
 import de.sormuras.bach.project.TestSpace;
 import de.sormuras.bach.project.CodeUnit;
 import java.nio.file.Path;
+import java.util.List;
 
 /** An action that compiles test sources to modules. */
 public class CompileTestSpace extends BuildTestCodeSpace<TestSpace> {
@@ -29,6 +31,11 @@ public class CompileTestSpace extends BuildTestCodeSpace<TestSpace> {
     super(bach, bach.project().spaces().test());
   }
 
+  @Override
+  public List<CodeSpace<?>> computeUpstreamSpaces() {
+    return List.of(main());
+  }
+
   @Override
   public Path[] computeModulePathsForCompileTime() {
     return new Path[] {
@@ -18,10 +18,12 @@
 package de.sormuras.bach.action;
 
 import de.sormuras.bach.Bach;
+import de.sormuras.bach.project.CodeSpace;
 import de.sormuras.bach.project.TestSpacePreview;
 import de.sormuras.bach.project.CodeUnit;
 import de.sormuras.bach.tool.Javac;
 import java.nio.file.Path;
+import java.util.List;
 
 /** An action that compiles test-preview sources to modules. */
 public class CompileTestSpacePreview extends BuildTestCodeSpace<TestSpacePreview> {
@@ -38,6 +40,11 @@ public class CompileTestSpacePreview extends BuildTestCodeSpace<TestSpacePreview
         .with("-Xlint:-preview");
   }
 
+  @Override
+  public List<CodeSpace<?>> computeUpstreamSpaces() {
+    return List.of(main(), test());
+  }
+
   @Override
   public Path[] computeModulePathsForCompileTime() {
     return new Path[] {
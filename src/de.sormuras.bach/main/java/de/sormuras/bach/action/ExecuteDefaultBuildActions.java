@@ -0,0 +1,65 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.action;
+
+import de.sormuras.bach.Bach;
+import de.sormuras.bach.internal.Scheduler;
+import java.lang.System.Logger.Level;
+
+/**
+ * An action that resolves missing external modules and builds all code spaces.
+ *
+ * <p>Build steps are scheduled as a directed acyclic graph: each step starts as soon as the steps
+ * it depends on are completed. For example, generating API documentation of main modules overlaps
+ * with compiling them and running the tests of the test space overlaps with compiling the modules
+ * of the test-preview space.
+ */
+public class ExecuteDefaultBuildActions implements Action {
+
+  private final Bach bach;
+
+  public ExecuteDefaultBuildActions(Bach bach) {
+    this.bach = bach;
+  }
+
+  @Override
+  public Bach bach() {
+    return bach;
+  }
+
+  @Override
+  public void execute() {
+    var main = new CompileMainSpace(bach);
+    var test = new CompileTestSpace(bach);
+    var preview = new CompileTestSpacePreview(bach);
+
+    var scheduler = new Scheduler();
+    scheduler.add("resolve", bach::resolveMissingExternalModules);
+    scheduler.add("main", main.step(main::buildMainModules), "resolve");
+    scheduler.add("main-api", main.step(main::buildApiDocumentation), "resolve");
+    scheduler.add("main-image", main.step(main::buildCustomRuntimeImage), "main");
+    scheduler.add("test", test.step(test::buildModules), "main");
+    scheduler.add("test-run", test.step(test::buildReportsByExecutingModules), "test");
+    scheduler.add("preview", preview.step(preview::buildModules), "main", "test");
+    scheduler.add("preview-run", preview.step(preview::buildReportsByExecutingModules), "preview");
+
+    var parallelism = bach.configuration().limits().parallelism();
+    log(Level.DEBUG, "Execute %s with up to %d threads", scheduler.names(), parallelism);
+    scheduler.run(parallelism);
+  }
+}
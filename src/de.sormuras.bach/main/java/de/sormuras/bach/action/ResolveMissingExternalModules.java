@@ -18,18 +18,37 @@
 package de.sormuras.bach.action;
 
 import de.sormuras.bach.Bach;
+import de.sormuras.bach.Configuration;
+import de.sormuras.bach.Flag;
+import de.sormuras.bach.internal.Fingerprint;
+import de.sormuras.bach.internal.InFlightLimiter;
+import de.sormuras.bach.internal.LockFile;
+import de.sormuras.bach.internal.ModuleRepository;
 import de.sormuras.bach.internal.Paths;
 import de.sormuras.bach.internal.Resolver;
 import de.sormuras.bach.internal.Resources;
 import de.sormuras.bach.internal.SormurasModulesProperties;
 import de.sormuras.bach.project.Link;
 import java.lang.System.Logger.Level;
+import java.lang.module.ModuleFinder;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** An action that resolves missing external modules. */
 public class ResolveMissingExternalModules implements Action {
@@ -37,13 +56,29 @@ public class ResolveMissingExternalModules implements Action {
   private final Bach bach;
   private final List<Link> computedLinks;
   private final List<Link> resolvedLinks;
+  private final AtomicInteger started;
+  private final AtomicInteger done;
+  private final AtomicLong bytes;
+  private final AtomicInteger linkedFromRepository;
+  private Map<String, Link> lockedLinks; // null if no lock file is present
   private /*lazy*/ SormurasModulesProperties sormurasModulesProperties;
+  private /*lazy*/ InFlightLimiter limiter;
+  private /*lazy*/ ModuleRepository moduleRepository;
+  private /*lazy*/ ExecutorService lookups;
 
   public ResolveMissingExternalModules(Bach bach) {
     this.bach = bach;
-    this.computedLinks = new ArrayList<>();
-    this.resolvedLinks = new ArrayList<>();
+    this.computedLinks = new CopyOnWriteArrayList<>();
+    this.resolvedLinks = new CopyOnWriteArrayList<>();
+    this.started = new AtomicInteger();
+    this.done = new AtomicInteger();
+    this.bytes = new AtomicLong();
+    this.linkedFromRepository = new AtomicInteger();
+    this.lockedLinks = null;
     this.sormurasModulesProperties = null;
+    this.limiter = null;
+    this.moduleRepository = null;
+    this.lookups = null;
   }
 
   @Override
@@ -69,54 +104,254 @@ public class ResolveMissingExternalModules implements Action {
     if (Files.isDirectory(base().libraries())) logbook().printSummaryOfModules(base().libraries());
   }
 
-  public Optional<Link> computeLink(String module) {
+  public synchronized Optional<Link> computeLink(String module) {
     if (sormurasModulesProperties == null) {
       sormurasModulesProperties = new SormurasModulesProperties(bach()::http, Map.of());
     }
     return sormurasModulesProperties.lookup(module);
   }
 
+  /** Return the path of the lock file that records links of all resolved external modules. */
+  public Path lockFile() {
+    return base().directory(".bach", "modules.lock");
+  }
+
+  /**
+   * Resolve all missing external modules in a single pipeline.
+   *
+   * <p>Each missing module is downloaded as soon as it is seen and the descriptor of each
+   * downloaded modular JAR file is read once to download its missing requires right away, while
+   * other downloads are still in flight. All downloads share the HTTP client of Bach, which reuses
+   * connections and multiplexes requests to the same host over HTTP/2. No thread is blocked while
+   * a request is in flight, the number of requests in flight is bounded by {@link
+   * Configuration.Limits#requests()}.
+   *
+   * <p>With {@link Flag#USE_MODULE_REPOSITORY} set, modules already stored in the user-level
+   * module repository are linked into the library directory instead of being downloaded, and
+   * downloaded modules are stored in that repository for other projects on the same machine.
+   *
+   * <p>With a {@link #lockFile()} present, all locked modules missing in the library directory
+   * are resolved in a single pass using only their locked links: module properties are not looked
+   * up and a module that is not locked fails the resolution. Without a lock file and with {@link
+   * Flag#WRITE_MODULES_LOCK_FILE} set, one is written after modules were resolved.
+   */
   public void resolveMissingExternalModules() {
     var libraries = base().libraries();
-    var resolver =
-        new Resolver(List.of(libraries), project().toDeclaredModuleNames(), this::resolveModules);
-    resolver.resolve(project().toRequiredModuleNames()); // from all module-info.java files
-    resolver.resolve(project().library().toRequiredModuleNames()); // from project descriptor
+    var required = new TreeSet<String>();
+    required.addAll(project().toRequiredModuleNames()); // from all module-info.java files
+    required.addAll(project().library().toRequiredModuleNames()); // from project descriptor
+    var lockFile = lockFile();
+    var locked = Files.isRegularFile(lockFile);
+    if (locked) {
+      lockedLinks = LockFile.read(lockFile);
+      required.addAll(lockedLinks.keySet());
+      log(Level.DEBUG, "Resolve with %d modules locked in %s", lockedLinks.size(), lockFile);
+    }
+    var declared = project().toDeclaredModuleNames();
+    var resolver = new Resolver(List.of(libraries), declared, this::resolveModuleAsync);
+    var start = Instant.now();
+    try {
+      resolver.resolve(required);
+    } finally {
+      shutdownLookups();
+    }
+    if (!locked && !resolvedLinks.isEmpty() && bach().is(Flag.WRITE_MODULES_LOCK_FILE)) {
+      writeLockFile(lockFile);
+    }
+    if (linkedFromRepository.get() > 0) {
+      var directory = moduleRepository().directory().toUri();
+      log(Level.INFO, "Linked %d modules from %s", linkedFromRepository.get(), directory);
+    }
+    if (started.get() == 0) return;
+    var millis = Math.max(1, Duration.between(start, Instant.now()).toMillis());
+    var throughput = bytes.get() * 1000.0 / millis / (1024 * 1024);
+    var format = "Downloaded %,d bytes of %d modules in %d ms (%.2f MiB/s, up to %d in flight)";
+    log(Level.INFO, format, bytes.get(), done.get(), millis, throughput, limiter().limit());
   }
 
   public void resolveModules(Set<String> modules) {
-    log(Level.INFO, "\n");
-    var listing = String.join(", ", modules);
-    if (modules.size() == 1) log(Level.INFO, "Resolve missing external module %s", listing);
-    else log(Level.INFO, "Resolve %d missing external modules: %s", modules.size(), listing);
+    var futures = modules.stream().map(this::resolveModuleAsync);
+    try {
+      join(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)));
+    } finally {
+      shutdownLookups();
+    }
+  }
+
+  /**
+   * Download the modular JAR file of the given module asynchronously.
+   *
+   * @param module The name of the module to resolve
+   * @return A future that completes with the path of the downloaded modular JAR file
+   */
+  public CompletableFuture<Path> resolveModuleAsync(String module) {
+    return findLinkAsync(module).thenCompose(link -> resolveModuleAsync(module, link));
+  }
+
+  private CompletableFuture<Path> resolveModuleAsync(String module, Optional<Link> optionalLink) {
+    if (optionalLink.isEmpty()) {
+      log(Level.ERROR, "Module %s not resolvable", module);
+      var message = "Module " + module + " not resolvable";
+      if (lockedLinks != null) message += ", it is not locked in " + lockFile();
+      return CompletableFuture.failedFuture(new IllegalStateException(message));
+    }
+    var link = optionalLink.orElseThrow();
+    var key = toRepositoryKey(link);
+    if (key.isPresent() && isStoredInRepository(key.get(), link)) {
+      var file = base().libraries().resolve(link.toModularJarFileName());
+      var linked = moduleRepository().link(key.get(), file);
+      if (linked.isPresent()) {
+        log(Level.INFO, "- %s << %s", module, moduleRepository().directory().toUri());
+        resolvedLinks.add(link);
+        linkedFromRepository.incrementAndGet();
+        return CompletableFuture.completedFuture(linked.get());
+      }
+    }
+    var resources = new Resources(bach().http());
+    started.incrementAndGet();
+    var future = limiter().submit(() -> resolveLinkAsync(resources, link)).thenApply(this::count);
+    if (key.isEmpty()) return future;
+    return future.thenApply(file -> store(key.get(), file));
+  }
+
+  public void resolveLink(Link link) {
+    join(resolveLinkAsync(new Resources(bach().http()), link));
+  }
+
+  /**
+   * Find the link of the given module.
+   *
+   * <p>Computing a link may block while module properties are loaded via HTTP. It is done on a
+   * lookup thread, as this method may be called on a completion thread of the HTTP client.
+   */
+  private CompletableFuture<Optional<Link>> findLinkAsync(String module) {
+    if (lockedLinks != null) {
+      return CompletableFuture.completedFuture(Optional.ofNullable(lockedLinks.get(module)));
+    }
+    var link = project().library().findLink(module);
+    if (link.isPresent()) return CompletableFuture.completedFuture(link);
+    return CompletableFuture.supplyAsync(() -> computeLink(module), lookups())
+        .thenApply(
+            computed -> {
+              computed.ifPresent(computedLinks::add);
+              return computed;
+            });
+  }
+
+  private synchronized ExecutorService lookups() {
+    if (lookups == null) {
+      lookups =
+          Executors.newSingleThreadExecutor(
+              runnable -> {
+                var thread = new Thread(runnable, "bach-link-lookup");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    return lookups;
+  }
+
+  private synchronized void shutdownLookups() {
+    if (lookups == null) return;
+    lookups.shutdown();
+    lookups = null;
+  }
 
+  private void writeLockFile(Path file) {
+    var resolved = new TreeMap<String, Link>();
+    for (var link : resolvedLinks) resolved.put(link.module(), link);
     var links = new ArrayList<Link>();
-    for (var module : modules) {
-      var optionalLink = project().library().findLink(module);
-      if (optionalLink.isEmpty()) {
-        optionalLink = computeLink(module);
-        if (optionalLink.isEmpty()) {
-          log(Level.ERROR, "Module %s not resolvable", module);
-          continue;
-        }
-        computedLinks.add(optionalLink.orElseThrow());
+    for (var reference : ModuleFinder.of(base().libraries()).findAll()) {
+      var module = reference.descriptor().name();
+      var link = Optional.ofNullable(resolved.get(module));
+      if (link.isEmpty()) link = project().library().findLink(module);
+      if (link.isEmpty()) {
+        log(Level.WARNING, "Module %s not locked, its link is unknown", module);
+        continue;
       }
-      links.add(optionalLink.orElseThrow());
+      var jar = Path.of(reference.location().orElseThrow());
+      links.add(LockFile.lock(link.get(), jar));
+    }
+    LockFile.write(file, links);
+    log(Level.INFO, "Locked %d external modules in %s", links.size(), file);
+  }
+
+  private synchronized InFlightLimiter limiter() {
+    if (limiter == null) {
+      limiter = new InFlightLimiter(Math.max(1, bach().configuration().limits().requests()));
     }
+    return limiter;
+  }
 
-    bach().run(this::resolveLink, links);
+  /** Return the key of the link in the module repository, if the repository is to be used. */
+  private Optional<String> toRepositoryKey(Link link) {
+    if (!bach().is(Flag.USE_MODULE_REPOSITORY)) return Optional.empty();
+    var version = link.findVersion();
+    if (version.isPresent() && version.get().endsWith("-SNAPSHOT")) return Optional.empty();
+    var fingerprint = new Fingerprint().add(link.uri().split("#", 2)[0]); // without fragment
+    return Optional.of(link.module() + '@' + version.orElseGet(fingerprint::toHexString));
   }
 
-  public void resolveLink(Link link) {
+  /** Return true if the repository stores content with the digest expected by the link. */
+  private boolean isStoredInRepository(String key, Link link) {
+    var content = moduleRepository().find(key);
+    if (content.isEmpty()) return false;
+    var digest = link.findDigests().get(LockFile.ALGORITHM);
+    return digest == null || digest.equalsIgnoreCase(Paths.name(content.get()));
+  }
+
+  private synchronized ModuleRepository moduleRepository() {
+    if (moduleRepository == null) {
+      moduleRepository = new ModuleRepository(ModuleRepository.ofSystemDirectory());
+    }
+    return moduleRepository;
+  }
+
+  private Path store(String key, Path file) {
+    var content = moduleRepository().store(key, file);
+    log(Level.DEBUG, "Stored %s in module repository as %s", key, content.getFileName());
+    return file;
+  }
+
+  private Path count(Path file) {
+    var size = Paths.size(file);
+    bytes.addAndGet(size);
+    var name = file.getFileName();
+    var progress = done.incrementAndGet();
+    log(Level.DEBUG, "Resolved %s with %,d bytes [%d/%d]", name, size, progress, started.get());
+    return file;
+  }
+
+  private static void join(CompletableFuture<?> future) {
+    try {
+      future.join();
+    } catch (CompletionException exception) {
+      var cause = exception.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw exception;
+    }
+  }
+
+  CompletableFuture<Path> resolveLinkAsync(Resources resources, Link link) {
     var module = link.module();
     var uri = link.toURI();
     log(Level.INFO, "- %s << %s", module, uri);
-    try {
-      var lib = Paths.createDirectories(base().libraries());
-      new Resources(bach().http()).copy(uri, lib.resolve(link.toModularJarFileName()));
-      resolvedLinks.add(link);
-    } catch (Exception e) {
-      throw new Error("Resolve module '" + module + "' failed: " + uri + "\n\t" + e, e);
-    }
+    var lib = Paths.createDirectories(base().libraries());
+    var file = lib.resolve(link.toModularJarFileName());
+    var size = link.findSize().map(Integer::longValue).orElse(-1L);
+    return resources
+        .copyAsync(uri, file, size, link.findDigests())
+        .handle(
+            (copied, throwable) -> {
+              if (throwable == null) {
+                resolvedLinks.add(link);
+                return copied;
+              }
+              var cause =
+                  throwable instanceof CompletionException ? throwable.getCause() : throwable;
+              var message = "Resolve module '" + module + "' failed: " + uri + "\n\t" + cause;
+              throw new Error(message, cause);
+            });
   }
 }
@@ -0,0 +1,313 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import de.sormuras.bach.Call;
+import java.io.File;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A local content-addressable cache of tool call outputs.
+ *
+ * <p>An action key is computed from the tool name, all arguments, the Java runtime version, and
+ * the contents of all files and directories referenced by the arguments. The outputs of a call,
+ * i.e. its {@code -d} directory, its {@code --file} archive, or its {@code --output} directory,
+ * are stored as content-addressed files. An action file maps each output file to its content.
+ *
+ * <p>Outputs are restored by creating hard links for archives, which the {@code jar} tool replaces
+ * instead of writing into them, and by copying files of output directories, which tools like
+ * {@code javac} may overwrite in place. Copying is used as a fallback when linking is unsupported.
+ */
+public final class BuildCache {
+
+  /** Names of tools whose outputs are cached. */
+  public static final Set<String> TOOLS = Set.of("jar", "javac", "javadoc", "jlink");
+
+  private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+  private static final Pattern SIZE = Pattern.compile("[0-9]{1,18}");
+
+  /** Return the directory of the build cache, which defaults to {@code ~/.bach/cache}. */
+  public static Path ofSystemDirectory() {
+    var home = Path.of(System.getProperty("user.home"), ".bach", "cache").toString();
+    return Path.of(System.getProperty("bach.build-cache.directory", home));
+  }
+
+  private final Path directory;
+  private final Optional<RemoteBuildCache> remote;
+
+  public BuildCache(Path directory) {
+    this(directory, Optional.empty());
+  }
+
+  public BuildCache(Path directory, Optional<RemoteBuildCache> remote) {
+    this.directory = directory;
+    this.remote = remote;
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  public Optional<RemoteBuildCache> remote() {
+    return remote;
+  }
+
+  /** Return the key of the given call or an empty optional if the call is not cacheable. */
+  public Optional<Key> computeKey(Call<?> call) {
+    if (!TOOLS.contains(call.name())) return Optional.empty();
+    var outputs = computeOutputs(call);
+    if (outputs.isEmpty()) return Optional.empty();
+    var fingerprint = new Fingerprint().add(Runtime.version().toString()).add(call.toCommand());
+    for (var input : computeInputs(call)) {
+      // skip outputs, files within outputs, and directories containing outputs like javac's -d
+      if (outputs.stream().anyMatch(output -> isRelated(input, output))) continue;
+      if (Files.isDirectory(input)) fingerprint.addTree(input);
+      else if (Files.isRegularFile(input)) fingerprint.add(input.toString()).addFile(input);
+    }
+    return Optional.of(new Key(fingerprint.toHexString(), outputs));
+  }
+
+  /**
+   * Restore the outputs of a previous call with the same key.
+   *
+   * <p>An action file is rejected and deleted, if one of its lines is malformed, refers to a
+   * missing content or a content of another size, or targets a path outside the outputs of the
+   * given key. Action files shared via a remote cache are thus never able to write elsewhere.
+   *
+   * @param key The key of the call
+   * @return The number of bytes restored or an empty optional on a cache miss
+   */
+  public Optional<Long> restore(Key key) {
+    var action = action(key.hash());
+    if (Files.notExists(action)) {
+      if (remote.isEmpty()) return Optional.empty();
+      if (!remote.get().download(key.hash(), action, this::content)) return Optional.empty();
+    }
+    try {
+      var entries = new ArrayList<String[]>();
+      for (var line : Files.readAllLines(action)) {
+        var entry = parse(line).filter(split -> isRestorable(key, split));
+        if (entry.isEmpty()) {
+          Files.deleteIfExists(action);
+          return Optional.empty();
+        }
+        entries.add(entry.get());
+      }
+      for (var output : key.outputs()) Paths.deleteDirectories(output);
+      long bytes = 0;
+      for (var entry : entries) {
+        var target = Path.of(entry[3]).toAbsolutePath().normalize();
+        Files.createDirectories(target.getParent());
+        var content = content(entry[0]);
+        if (entry[2].equals("archive")) Paths.linkOrCopy(content, target);
+        else Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING);
+        bytes += Long.parseLong(entry[1]);
+      }
+      for (var output : key.outputs()) if (Files.notExists(output)) return Optional.empty();
+      return Optional.of(bytes);
+    } catch (Exception e) {
+      throw new RuntimeException("Restore from build cache failed: " + key.hash(), e);
+    }
+  }
+
+  /** Store the outputs of a successful call. */
+  public void store(Key key) {
+    var lines = new ArrayList<String>();
+    try {
+      for (var output : key.outputs()) {
+        if (Files.isRegularFile(output)) {
+          lines.add(storeContent(output, "archive"));
+          continue;
+        }
+        if (!Files.isDirectory(output)) return; // nothing to store
+        for (var file : Paths.find(List.of(output), 99, Files::isRegularFile)) {
+          lines.add(storeContent(file, "file"));
+        }
+      }
+      var action = action(key.hash());
+      var temporary = Files.createTempFile(Files.createDirectories(action.getParent()), "", ".tmp");
+      Files.write(temporary, lines);
+      Files.move(temporary, action, StandardCopyOption.REPLACE_EXISTING);
+    } catch (Exception e) {
+      throw new RuntimeException("Store in build cache failed: " + key.hash(), e);
+    }
+    remote.ifPresent(remote -> remote.upload(key.hash(), action(key.hash()), this::content));
+  }
+
+  private Path action(String hash) {
+    return directory.resolve("actions").resolve(hash);
+  }
+
+  private Path content(String hash) {
+    return directory.resolve("contents").resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  private String storeContent(Path file, String kind) throws Exception {
+    var hash = new Fingerprint().addContent(file).toHexString();
+    var content = content(hash);
+    if (Files.notExists(content)) {
+      Files.createDirectories(content.getParent());
+      var temporary = Files.createTempFile(content.getParent(), hash, ".tmp");
+      Files.copy(file, temporary, StandardCopyOption.REPLACE_EXISTING);
+      try {
+        Files.move(temporary, content, StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException e) {
+        Files.deleteIfExists(temporary);
+      }
+    }
+    return hash + ' ' + Files.size(file) + ' ' + kind + ' ' + Paths.replaceBackslashes(file);
+  }
+
+  /** Return the fields of an action line or an empty optional if the line is malformed. */
+  static Optional<String[]> parse(String line) {
+    // line format: "<hash> <size> <kind> <path>"
+    var split = line.split(" ", 4);
+    if (split.length != 4) return Optional.empty();
+    if (!HASH.matcher(split[0]).matches() || !SIZE.matcher(split[1]).matches()) {
+      return Optional.empty();
+    }
+    if (!split[2].equals("archive") && !split[2].equals("file")) return Optional.empty();
+    return Optional.of(split);
+  }
+
+  /** Return {@code true} if an entry's content is stored and its target is an output of the key. */
+  private boolean isRestorable(Key key, String[] entry) {
+    try {
+      var content = content(entry[0]);
+      if (!Files.isRegularFile(content)) return false;
+      if (Files.size(content) != Long.parseLong(entry[1])) return false;
+      var target = Path.of(entry[3]).toAbsolutePath().normalize();
+      for (var output : key.outputs()) {
+        var path = output.toAbsolutePath().normalize();
+        if (entry[2].equals("archive") ? target.equals(path) : isWithin(target, path)) return true;
+      }
+      return false;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private static boolean isWithin(Path target, Path directory) {
+    return target.startsWith(directory) && !target.equals(directory);
+  }
+
+  /** Return paths written by the given call. */
+  static List<Path> computeOutputs(Call<?> call) {
+    var outputs = new ArrayList<Path>();
+    switch (call.name()) {
+      case "jar":
+        call.findValue("--file").map(Path::of).ifPresent(outputs::add);
+        break;
+      case "javac":
+        var classes = call.findValue("-d").map(Path::of);
+        if (classes.isEmpty()) break;
+        var modules = call.findValue("--module");
+        if (modules.isEmpty()) outputs.add(classes.get());
+        else for (var module : modules.get().split(",")) outputs.add(classes.get().resolve(module));
+        break;
+      case "javadoc":
+        call.findValue("-d").map(Path::of).ifPresent(outputs::add);
+        break;
+      case "jlink":
+        call.findValue("--output").map(Path::of).ifPresent(outputs::add);
+        break;
+      default:
+    }
+    return outputs;
+  }
+
+  /** Return existing files and directories referenced by arguments of the given call. */
+  static Set<Path> computeInputs(Call<?> call) {
+    var inputs = new LinkedHashSet<Path>();
+    for (var argument : call.arguments()) {
+      var option = argument.option();
+      if (option.equals("-C")) { // jar: "-C DIR FILES" - only DIR is relevant
+        inputs.add(Path.of(argument.values().get(0)));
+        continue;
+      }
+      var values = new ArrayList<>(argument.values());
+      if (!option.startsWith("-")) values.add(option);
+      for (var value : values) {
+        for (var element : value.split(File.pathSeparator)) {
+          var path = element.substring(element.indexOf('=') + 1); // "module=path"
+          if (path.isEmpty() || path.equals(".")) continue;
+          if (path.contains("*")) inputs.addAll(expand(path));
+          else if (isPath(path) && Files.exists(Path.of(path))) inputs.add(Path.of(path));
+        }
+      }
+    }
+    return inputs;
+  }
+
+  private static boolean isRelated(Path input, Path output) {
+    var absolute = input.toAbsolutePath().normalize();
+    var other = output.toAbsolutePath().normalize();
+    return absolute.startsWith(other) || other.startsWith(absolute);
+  }
+
+  private static boolean isPath(String string) {
+    try {
+      Path.of(string);
+      return true;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  /** Expand a module source path pattern like {@code ./*}{@code /main/java}. */
+  private static List<Path> expand(String pattern) {
+    var index = pattern.indexOf('*');
+    var prefix = Path.of(pattern.substring(0, index).isEmpty() ? "." : pattern.substring(0, index));
+    var suffix = pattern.substring(index + 1).replaceFirst("^[/\\\\]", "");
+    if (!Files.isDirectory(prefix)) return List.of();
+    var paths = new ArrayList<Path>();
+    for (var directory : Paths.list(prefix, Files::isDirectory)) {
+      var path = suffix.isEmpty() ? directory : directory.resolve(suffix);
+      if (Files.isDirectory(path)) paths.add(path);
+    }
+    return paths;
+  }
+
+  /** A key of a cacheable call and the paths of its outputs. */
+  public static final class Key {
+    private final String hash;
+    private final List<Path> outputs;
+
+    public Key(String hash, List<Path> outputs) {
+      this.hash = hash;
+      this.outputs = List.copyOf(outputs);
+    }
+
+    public String hash() {
+      return hash;
+    }
+
+    public List<Path> outputs() {
+      return outputs;
+    }
+  }
+}
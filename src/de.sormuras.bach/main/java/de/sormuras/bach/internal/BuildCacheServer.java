@@ -0,0 +1,136 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal reference implementation of a remote build cache server.
+ *
+ * <p>The server stores entries in the same layout as a local build cache: action files in {@code
+ * actions/<key>} and contents in {@code contents/<hh>/<hash>}. Uploaded contents are verified
+ * against their hash.
+ *
+ * <p>The {@code jdk.httpserver} module is an optional dependency of Bach: add it to the set of root
+ * modules, for example via {@code --add-modules jdk.httpserver}, to start a server.
+ *
+ * @see RemoteBuildCache
+ */
+public final class BuildCacheServer implements AutoCloseable {
+
+  private static final Pattern RESOURCE = Pattern.compile("/(ac|cas)/([0-9a-f]{64})");
+
+  /**
+   * Start a server that serves the given directory.
+   *
+   * @param address The socket address to bind to, use port {@code 0} to pick a free port
+   * @param directory The root directory of the cache
+   * @return A started server
+   */
+  public static BuildCacheServer start(InetSocketAddress address, Path directory) {
+    var module = BuildCacheServer.class.getModule();
+    if (module.isNamed() && module.getLayer().findModule("jdk.httpserver").isEmpty()) {
+      throw new IllegalStateException("Module jdk.httpserver not resolved, add it to start");
+    }
+    try {
+      var server = new BuildCacheServer(HttpServer.create(address, 0), directory);
+      server.server.start();
+      return server;
+    } catch (IOException e) {
+      throw new RuntimeException("Start build cache server failed: " + address, e);
+    }
+  }
+
+  private final HttpServer server;
+  private final Path directory;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private BuildCacheServer(HttpServer server, Path directory) {
+    this.server = server;
+    this.directory = directory;
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+  }
+
+  /** Return the base URI of this server. */
+  public URI uri() {
+    var address = server.getAddress();
+    return URI.create("http://" + address.getHostString() + ':' + address.getPort() + '/');
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      var matcher = RESOURCE.matcher(exchange.getRequestURI().getPath());
+      if (!matcher.matches()) {
+        exchange.sendResponseHeaders(400, -1);
+        return;
+      }
+      var hash = matcher.group(2);
+      var file =
+          matcher.group(1).equals("ac")
+              ? directory.resolve("actions").resolve(hash)
+              : directory.resolve("contents").resolve(hash.substring(0, 2)).resolve(hash);
+      switch (exchange.getRequestMethod()) {
+        case "GET":
+          if (Files.notExists(file)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+          }
+          exchange.sendResponseHeaders(200, Files.size(file));
+          Files.copy(file, exchange.getResponseBody());
+          return;
+        case "PUT":
+          var parent = Files.createDirectories(file.getParent());
+          var temporary = Files.createTempFile(parent, hash, ".tmp");
+          try {
+            Files.copy(exchange.getRequestBody(), temporary, StandardCopyOption.REPLACE_EXISTING);
+            var content = matcher.group(1).equals("cas");
+            if (content && !hash.equals(new Fingerprint().addContent(temporary).toHexString())) {
+              exchange.sendResponseHeaders(400, -1);
+              return;
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+          } finally {
+            Files.deleteIfExists(temporary);
+          }
+          exchange.sendResponseHeaders(201, -1);
+          return;
+        default:
+          exchange.sendResponseHeaders(405, -1);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.spi.ToolProvider;
+
+/**
+ * A long-lived process that runs JDK tools on behalf of Bach programs started in the same
+ * directory.
+ *
+ * <p>Running tools in a warm virtual machine saves class loading and JIT compilation of the tools
+ * and lets them share their in-memory caches, like the symbol files used for {@code --release}
+ * compilations. Compilations reuse file managers with their indexed archives across builds, see
+ * {@link JavaCompilerRunner}. The daemon listens on an ephemeral port of the loopback interface
+ * and writes its port, its working directory, and a random access token to a properties file. A
+ * client connects only if that directory matches its own working directory, as tools resolve
+ * relative paths against it. The daemon stops when its properties file is deleted.
+ *
+ * <p>A request is rejected before any other part of it is read, unless it starts with the access
+ * token. Requests are bounded in size and must be sent within a few seconds after connecting.
+ */
+public final class Daemon implements AutoCloseable {
+
+  /** Names of tools that are run by a daemon, all other tools are run in-process. */
+  public static final Set<String> TOOLS =
+      Set.of("jar", "javac", "javadoc", "jdeps", "jlink", "jmod");
+
+  /** Milliseconds to wait for a client to send its request before the connection is closed. */
+  static final int REQUEST_TIMEOUT = 10_000;
+
+  /** Maximum number of arguments and bytes of a request, tool output excluded. */
+  static final int MAX_ARGUMENTS = 1 << 16, MAX_REQUEST_BYTES = 1 << 24;
+
+  /** Return the path to the properties file of a daemon serving the given workspace. */
+  public static Path file(Path workspace) {
+    return workspace.resolve("daemon.properties");
+  }
+
+  /**
+   * Start a daemon and write its properties file.
+   *
+   * @param file The properties file to write
+   * @return A started daemon
+   */
+  public static Daemon start(Path file) {
+    try {
+      var loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+      var server = new ServerSocket();
+      server.bind(loopback);
+      var bytes = new byte[32];
+      new SecureRandom().nextBytes(bytes);
+      var token = new StringBuilder();
+      for (var b : bytes) token.append(String.format("%02x", b));
+      var daemon = new Daemon(file, server, token.toString());
+      daemon.writeProperties();
+      daemon.executor.execute(daemon::accept);
+      daemon.executor.execute(daemon::watch);
+      return daemon;
+    } catch (IOException e) {
+      throw new RuntimeException("Start daemon failed: " + file, e);
+    }
+  }
+
+  /** Return a connection to the daemon described by the given file, if it serves this directory. */
+  public static Optional<Connection> find(Path file) {
+    if (Files.notExists(file)) return Optional.empty();
+    try (var reader = Files.newBufferedReader(file)) {
+      var properties = new Properties();
+      properties.load(reader);
+      var directory = properties.getProperty("directory", "");
+      if (!directory.equals(Path.of("").toAbsolutePath().toString())) return Optional.empty();
+      var port = Integer.parseInt(properties.getProperty("port"));
+      return Optional.of(new Connection(port, properties.getProperty("token")));
+    } catch (Exception e) {
+      return Optional.empty();
+    }
+  }
+
+  private final Path file;
+  private final ServerSocket server;
+  private final String token;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Map<String, Optional<ToolProvider>> providers = new ConcurrentHashMap<>();
+  private final CountDownLatch closed = new CountDownLatch(1);
+  private final JavaCompilerRunner javac = new JavaCompilerRunner();
+
+  private Daemon(Path file, ServerSocket server, String token) {
+    this.file = file;
+    this.server = server;
+    this.token = token;
+  }
+
+  public int port() {
+    return server.getLocalPort();
+  }
+
+  /** Block the current thread until this daemon is closed. */
+  public void awaitTermination() throws InterruptedException {
+    closed.await();
+  }
+
+  @Override
+  public void close() {
+    if (closed.getCount() == 0) return;
+    closed.countDown();
+    try {
+      server.close();
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      // best effort
+    }
+    executor.shutdownNow();
+    javac.close();
+  }
+
+  private void writeProperties() throws IOException {
+    Files.createDirectories(file.getParent());
+    var temporary = Files.createTempFile(file.getParent(), "daemon", ".tmp");
+    if (Paths.isViewSupported(temporary, "posix")) {
+      Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+    }
+    var properties = new Properties();
+    properties.setProperty("directory", Path.of("").toAbsolutePath().toString());
+    properties.setProperty("port", String.valueOf(port()));
+    properties.setProperty("token", token);
+    properties.setProperty("pid", String.valueOf(ProcessHandle.current().pid()));
+    try (var writer = Files.newBufferedWriter(temporary)) {
+      properties.store(writer, "Bach daemon");
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private void accept() {
+    while (!server.isClosed()) {
+      try {
+        var socket = server.accept();
+        socket.setSoTimeout(REQUEST_TIMEOUT);
+        executor.execute(() -> serve(socket));
+      } catch (IOException e) {
+        if (!server.isClosed()) System.getLogger("bach").log(System.Logger.Level.WARNING, e);
+      }
+    }
+  }
+
+  private void watch() {
+    try {
+      while (!closed.await(1, TimeUnit.SECONDS)) if (Files.notExists(file)) close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (socket) {
+      var in = new DataInputStream(socket.getInputStream());
+      var out = new DataOutputStream(socket.getOutputStream());
+      var expected = token.getBytes(StandardCharsets.UTF_8);
+      if (!MessageDigest.isEqual(readBytes(in, expected.length), expected)) return;
+      var remaining = MAX_REQUEST_BYTES;
+      var bytes = readBytes(in, remaining);
+      var name = new String(bytes, StandardCharsets.UTF_8);
+      remaining -= bytes.length;
+      var count = in.readInt();
+      if (count < 0 || count > MAX_ARGUMENTS) throw new IOException("Invalid count: " + count);
+      var args = new String[count];
+      for (int i = 0; i < args.length; i++) {
+        bytes = readBytes(in, remaining);
+        args[i] = new String(bytes, StandardCharsets.UTF_8);
+        remaining -= bytes.length;
+      }
+      var normal = new FrameWriter(out, OUT);
+      var errors = new FrameWriter(out, ERR);
+      var provider = Optional.<ToolProvider>empty();
+      if (TOOLS.contains(name)) provider = providers.computeIfAbsent(name, ToolProvider::findFirst);
+      int code;
+      if (provider.isEmpty()) {
+        errors.write("Tool not provided by daemon: " + name);
+        code = 1;
+      } else if (name.equals("javac") && JavaCompilerRunner.isCompilation(args)) {
+        code = javac.run(normal, errors, args);
+      } else {
+        var outWriter = new PrintWriter(normal);
+        var errWriter = new PrintWriter(errors);
+        code = provider.get().run(outWriter, errWriter, args);
+        outWriter.flush();
+        errWriter.flush();
+      }
+      normal.flush();
+      errors.flush();
+      synchronized (out) {
+        out.writeByte(EXIT);
+        out.writeInt(code);
+        out.flush();
+      }
+    } catch (Exception e) {
+      System.getLogger("bach").log(System.Logger.Level.WARNING, "Serving request failed", e);
+    }
+  }
+
+  /** Frame kinds of a response: chunks of normal and error output followed by the exit code. */
+  private static final byte EXIT = 0, OUT = 1, ERR = 2;
+
+  /**
+   * A writer that sends its characters in frames as soon as a chunk is full or on flush.
+   *
+   * <p>Output of a tool is streamed to the client while the tool is running: no matter how much
+   * output a tool produces, only one chunk of it is kept in memory. A frame never holds more than
+   * {@link #CHUNK} characters and never splits a surrogate pair.
+   */
+  private static final class FrameWriter extends Writer {
+
+    private static final int CHUNK = 8192;
+
+    private final DataOutputStream stream;
+    private final byte kind;
+    private final StringBuilder chunk = new StringBuilder();
+
+    FrameWriter(DataOutputStream stream, byte kind) {
+      this.stream = stream;
+      this.kind = kind;
+    }
+
+    @Override
+    public synchronized void write(char[] buffer, int offset, int length) throws IOException {
+      chunk.append(buffer, offset, length);
+      while (chunk.length() >= CHUNK) {
+        send(Character.isHighSurrogate(chunk.charAt(CHUNK - 1)) ? CHUNK - 1 : CHUNK);
+      }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      if (chunk.length() == 0) return;
+      send(chunk.length());
+    }
+
+    private void send(int end) throws IOException {
+      synchronized (stream) {
+        stream.writeByte(kind);
+        writeString(stream, chunk.substring(0, end));
+        stream.flush();
+      }
+      chunk.delete(0, end);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  /** Read a length-prefixed array of bytes, failing if the length exceeds the given limit. */
+  private static byte[] readBytes(DataInputStream in, int limit) throws IOException {
+    var length = in.readInt();
+    if (length < 0 || length > limit) throw new IOException("Invalid length: " + length);
+    var bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    var bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** A connection to a running daemon. */
+  public static final class Connection {
+
+    private final int port;
+    private final String token;
+
+    Connection(int port, String token) {
+      this.port = port;
+      this.token = token;
+    }
+
+    public int port() {
+      return port;
+    }
+
+    /**
+     * Run a tool in the daemon.
+     *
+     * @param name The name of the tool to run
+     * @param out The writer receiving the normal output of the tool
+     * @param err The writer receiving the error output of the tool
+     * @param args The arguments to pass to the tool
+     * @return The exit code of the tool
+     * @throws IOException if the daemon isn't reachable
+     */
+    public int run(String name, Writer out, Writer err, String... args) throws IOException {
+      try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+        var output = new DataOutputStream(socket.getOutputStream());
+        writeString(output, token);
+        writeString(output, name);
+        output.writeInt(args.length);
+        for (var arg : List.of(args)) writeString(output, arg);
+        output.flush();
+        var input = new DataInputStream(socket.getInputStream());
+        while (true) {
+          var kind = input.readByte();
+          if (kind == EXIT) break;
+          var bytes = readBytes(input, 3 * FrameWriter.CHUNK); // at most 3 bytes per char
+          var chunk = new String(bytes, StandardCharsets.UTF_8);
+          if (kind == OUT) out.write(chunk);
+          else err.write(chunk);
+        }
+        var code = input.readInt();
+        return code;
+      }
+    }
+  }
+}
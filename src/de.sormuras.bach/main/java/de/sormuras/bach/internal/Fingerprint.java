@@ -0,0 +1,93 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+
+/** A content hash builder that fingerprints the inputs of a build step. */
+public final class Fingerprint {
+
+  private final MessageDigest digest;
+  private final byte[] buffer = new byte[8192];
+
+  public Fingerprint() {
+    try {
+      this.digest = MessageDigest.getInstance("SHA-256");
+    } catch (Exception e) {
+      throw new Error("SHA-256 message digest algorithm not available", e);
+    }
+  }
+
+  /** Add a string terminated by a zero byte to avoid ambiguous concatenations. */
+  public Fingerprint add(String string) {
+    digest.update(string.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    return this;
+  }
+
+  /** Add all strings of the given iterable. */
+  public Fingerprint add(Iterable<String> strings) {
+    for (var string : strings) add(string);
+    return this;
+  }
+
+  /** Add the name and the content of a regular file. */
+  public Fingerprint addFile(Path file) {
+    return add(Paths.name(file)).addContent(file);
+  }
+
+  /** Add the content of a regular file. */
+  public Fingerprint addContent(Path file) {
+    try (var stream = Files.newInputStream(file)) {
+      for (int read; (read = stream.read(buffer)) != -1; ) digest.update(buffer, 0, read);
+    } catch (Exception e) {
+      throw new RuntimeException("Read file failed: " + file, e);
+    }
+    return this;
+  }
+
+  /** Add relative names and contents of all regular files found in the given directory tree. */
+  public Fingerprint addTree(Path directory) {
+    add(Paths.replaceBackslashes(directory));
+    if (Files.notExists(directory)) return this;
+    for (var file : Paths.find(List.of(directory), 99, Files::isRegularFile)) {
+      add(Paths.replaceBackslashes(directory.relativize(file)));
+      addFile(file);
+    }
+    return this;
+  }
+
+  /** Add a JAR file or all JAR files directly contained in the given directory. */
+  public Fingerprint addJars(Path path) {
+    add(Paths.replaceBackslashes(path));
+    if (Paths.isJarFile(path)) return addFile(path);
+    if (Files.isDirectory(path)) Paths.list(path, Paths::isJarFile).forEach(this::addFile);
+    return this;
+  }
+
+  /** Return the hexadecimal representation of the digest, which resets this fingerprint. */
+  public String toHexString() {
+    var hex = new StringBuilder();
+    for (var b : digest.digest()) hex.append(String.format("%02x", b));
+    return hex.toString();
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/** A persistent store that maps names of build steps to fingerprints of their inputs. */
+public final class Fingerprints {
+
+  private final Path directory;
+
+  public Fingerprints(Path directory) {
+    this.directory = directory;
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  /** Return the fingerprint recorded for the given name. */
+  public Optional<String> load(String name) {
+    var file = directory.resolve(name);
+    if (Files.notExists(file)) return Optional.empty();
+    try {
+      return Optional.of(Files.readString(file).strip());
+    } catch (Exception e) {
+      throw new RuntimeException("Read fingerprint failed: " + file, e);
+    }
+  }
+
+  /** Record the fingerprint for the given name. */
+  public void store(String name, String fingerprint) {
+    var file = directory.resolve(name);
+    try {
+      Files.createDirectories(directory);
+      Files.writeString(file, fingerprint);
+    } catch (Exception e) {
+      throw new RuntimeException("Write fingerprint failed: " + file, e);
+    }
+  }
+
+  /** Forget the fingerprint recorded for the given name. */
+  public void remove(String name) {
+    var file = directory.resolve(name);
+    try {
+      Files.deleteIfExists(file);
+    } catch (Exception e) {
+      throw new RuntimeException("Delete fingerprint failed: " + file, e);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Limit the number of asynchronous operations in flight without blocking any thread.
+ *
+ * <p>An operation submitted while the limit is reached is queued and started by the thread that
+ * completes an earlier operation.
+ */
+public final class InFlightLimiter {
+
+  private final int limit;
+  private final Queue<Runnable> waiting = new ArrayDeque<>();
+  private int running = 0;
+
+  public InFlightLimiter(int limit) {
+    if (limit < 1) throw new IllegalArgumentException("Limit must be positive: " + limit);
+    this.limit = limit;
+  }
+
+  /** Return the maximum number of operations in flight. */
+  public int limit() {
+    return limit;
+  }
+
+  /**
+   * Start the given operation as soon as fewer than the limit of operations are in flight.
+   *
+   * @param operation The supplier starting an asynchronous operation
+   * @return A future that completes with the result of the operation
+   */
+  public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> operation) {
+    var result = new CompletableFuture<T>();
+    Runnable start =
+        () -> {
+          CompletableFuture<T> future;
+          try {
+            future = operation.get();
+          } catch (RuntimeException | Error throwable) {
+            future = CompletableFuture.failedFuture(throwable);
+          }
+          future.whenComplete(
+              (value, throwable) -> {
+                release();
+                if (throwable == null) result.complete(value);
+                else result.completeExceptionally(throwable);
+              });
+        };
+    boolean now;
+    synchronized (this) {
+      now = running < limit;
+      if (now) running++;
+      else waiting.add(start);
+    }
+    if (now) start.run();
+    return result;
+  }
+
+  private void release() {
+    Runnable next;
+    synchronized (this) {
+      next = waiting.poll();
+      if (next == null) running--;
+    }
+    if (next != null) next.run();
+  }
+}
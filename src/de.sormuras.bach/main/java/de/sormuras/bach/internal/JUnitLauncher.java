@@ -0,0 +1,227 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.spi.ToolProvider;
+
+/**
+ * A tool provider that launches the JUnit Platform via its launcher API and streams test events.
+ *
+ * <p>This module doesn't read any JUnit module: the launcher API is accessed reflectively via the
+ * class loader of the JUnit Platform console tool and test execution events are received by a
+ * dynamic proxy implementing {@code TestExecutionListener}. Supported arguments are {@code
+ * --select-module}, {@code --select-class}, {@code --select-method}, {@code --reports-dir}, and
+ * {@code --disable-ansi-colors}. Any other argument delegates the run to the console tool.
+ */
+public final class JUnitLauncher implements ToolProvider {
+
+  /** A receiver of test execution events. */
+  public interface Listener {
+
+    /**
+     * Called when a test started.
+     *
+     * @param name The name of the test
+     */
+    void testStarted(String name);
+
+    /**
+     * Called when a test or a container finished, or when it was skipped.
+     *
+     * @param type The binary name of the test class, or an empty string if it's unknown
+     * @param name The name of the test or of the container
+     * @param status One of {@code SUCCESSFUL}, {@code ABORTED}, {@code FAILED}, or {@code SKIPPED}
+     * @param duration The duration of the test, zero for a skipped test
+     */
+    void testFinished(String type, String name, String status, Duration duration);
+  }
+
+  private static final Map<String, String> SELECTORS =
+      Map.of(
+          "--select-module", "selectModule",
+          "--select-class", "selectClass",
+          "--select-method", "selectMethod");
+
+  private final ToolProvider console;
+  private final Listener listener;
+
+  public JUnitLauncher(ToolProvider console, Listener listener) {
+    this.console = console;
+    this.listener = listener;
+  }
+
+  @Override
+  public String name() {
+    return console.name();
+  }
+
+  @Override
+  public int run(PrintWriter out, PrintWriter err, String... args) {
+    var selectors = new ArrayList<String[]>();
+    Path reports = null;
+    for (int i = 0; i < args.length; i++) {
+      var option = args[i];
+      if (option.equals("--disable-ansi-colors")) continue;
+      var supported = SELECTORS.containsKey(option) || option.equals("--reports-dir");
+      if (!supported || i + 1 == args.length) return console.run(out, err, args);
+      var value = args[++i];
+      if (option.equals("--reports-dir")) reports = Path.of(value);
+      else selectors.add(new String[] {SELECTORS.get(option), value});
+    }
+    if (selectors.isEmpty()) return console.run(out, err, args);
+
+    var thread = Thread.currentThread();
+    var context = thread.getContextClassLoader();
+    var loader = console.getClass().getClassLoader();
+    thread.setContextClassLoader(loader);
+    try {
+      return execute(loader, selectors, reports, out, err);
+    } catch (InvocationTargetException exception) {
+      exception.getCause().printStackTrace(err);
+      return -1;
+    } catch (ReflectiveOperationException exception) {
+      exception.printStackTrace(err);
+      return -1;
+    } finally {
+      thread.setContextClassLoader(context);
+    }
+  }
+
+  private int execute(
+      ClassLoader loader, List<String[]> selectors, Path reports, PrintWriter out, PrintWriter err)
+      throws ReflectiveOperationException {
+    var discovery = loader.loadClass("org.junit.platform.engine.discovery.DiscoverySelectors");
+    var list = new ArrayList<Object>();
+    for (var selector : selectors) {
+      list.add(discovery.getMethod(selector[0], String.class).invoke(null, selector[1]));
+    }
+    var builderType = loadLauncherClass(loader, "core.LauncherDiscoveryRequestBuilder");
+    var builder = builderType.getMethod("request").invoke(null);
+    builderType.getMethod("selectors", List.class).invoke(builder, list);
+    var request = builderType.getMethod("build").invoke(builder);
+
+    var listenerType = loadLauncherClass(loader, "TestExecutionListener");
+    var summaryType = loadLauncherClass(loader, "listeners.SummaryGeneratingListener");
+    var summaryListener = summaryType.getConstructor().newInstance();
+    var listeners = new ArrayList<>(List.of(newProxy(loader, listenerType), summaryListener));
+    if (reports != null) {
+      var name = "org.junit.platform.reporting.legacy.xml.LegacyXmlReportGeneratingListener";
+      var constructor = loader.loadClass(name).getConstructor(Path.class, PrintWriter.class);
+      listeners.add(constructor.newInstance(reports, out));
+    }
+    var array = Array.newInstance(listenerType, listeners.size());
+    for (int i = 0; i < listeners.size(); i++) Array.set(array, i, listeners.get(i));
+
+    var factoryType = loadLauncherClass(loader, "core.LauncherFactory");
+    var launcherType = loadLauncherClass(loader, "Launcher");
+    var requestType = loadLauncherClass(loader, "LauncherDiscoveryRequest");
+    var launcher = factoryType.getMethod("create").invoke(null);
+    var execute = launcherType.getMethod("execute", requestType, array.getClass());
+    execute.invoke(launcher, request, array);
+
+    var summary = summaryType.getMethod("getSummary").invoke(summaryListener);
+    var summaryInterface = loadLauncherClass(loader, "listeners.TestExecutionSummary");
+    summaryInterface.getMethod("printTo", PrintWriter.class).invoke(summary, out);
+    var failures = (long) summaryInterface.getMethod("getTotalFailureCount").invoke(summary);
+    if (failures == 0) return 0;
+    summaryInterface.getMethod("printFailuresTo", PrintWriter.class).invoke(summary, err);
+    return 1;
+  }
+
+  private static Class<?> loadLauncherClass(ClassLoader loader, String name)
+      throws ClassNotFoundException {
+    return loader.loadClass("org.junit.platform.launcher." + name);
+  }
+
+  private Object newProxy(ClassLoader loader, Class<?> listenerType) {
+    var starts = new ConcurrentHashMap<Object, Instant>();
+    InvocationHandler handler =
+        (proxy, method, arguments) -> {
+          switch (method.getName()) {
+            case "executionStarted":
+              if (!isTest(arguments[0])) return null;
+              starts.put(arguments[0], Instant.now());
+              listener.testStarted(toName(arguments[0]));
+              return null;
+            case "executionFinished":
+              var start = starts.remove(arguments[0]);
+              var status = invoke(arguments[1], "getStatus").toString();
+              if (!isTest(arguments[0]) && status.equals("SUCCESSFUL")) return null;
+              var duration = start == null ? Duration.ZERO : Duration.between(start, Instant.now());
+              listener.testFinished(toType(arguments[0]), toName(arguments[0]), status, duration);
+              return null;
+            case "executionSkipped":
+              var name = toName(arguments[0]);
+              listener.testFinished(toType(arguments[0]), name, "SKIPPED", Duration.ZERO);
+              return null;
+            case "equals":
+              return proxy == arguments[0];
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "toString":
+              return "JUnitLauncher.Listener for " + listener;
+            default:
+              return null;
+          }
+        };
+    return Proxy.newProxyInstance(loader, new Class<?>[] {listenerType}, handler);
+  }
+
+  private static boolean isTest(Object identifier) {
+    return (boolean) invoke(identifier, "isTest");
+  }
+
+  private static String toType(Object identifier) {
+    var source = (Optional<?>) invoke(identifier, "getSource");
+    if (source.isEmpty()) return "";
+    try {
+      return (String) source.get().getClass().getMethod("getClassName").invoke(source.get());
+    } catch (ReflectiveOperationException exception) {
+      return ""; // neither a class source nor a method source
+    }
+  }
+
+  private static String toName(Object identifier) {
+    var name = (String) invoke(identifier, "getLegacyReportingName");
+    var source = (Optional<?>) invoke(identifier, "getSource");
+    if (source.isEmpty()) return name;
+    var method = source.get().getClass().getSimpleName().equals("MethodSource");
+    return method ? toType(identifier) + '#' + name : name;
+  }
+
+  private static Object invoke(Object object, String name) {
+    try {
+      return object.getClass().getMethod(name).invoke(object);
+    } catch (ReflectiveOperationException exception) {
+      throw new IllegalStateException("Invoke " + name + " failed on " + object, exception);
+    }
+  }
+}
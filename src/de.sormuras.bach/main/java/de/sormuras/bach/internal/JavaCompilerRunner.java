@@ -0,0 +1,443 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Run the system Java compiler via the {@code javax.tools} API with reusable file managers.
+ *
+ * <p>A standard file manager keeps the archives it opened indexed, but it also remembers the
+ * location options it handled and rejects a second module source path pattern. Therefore, file
+ * managers are pooled by their location options and reused by later compilations passing equal
+ * options, as long as the archives on their paths didn't change. Class files are captured in memory
+ * and written to their locations in bulk after the compilation finished.
+ *
+ * <p>Only file managers of compilations that returned normally are pooled. The pool holds a bounded
+ * number of file managers; least recently used ones are closed when it's full, so file managers for
+ * options that are never passed again don't stay open in a long-lived process.
+ */
+public final class JavaCompilerRunner implements AutoCloseable {
+
+  private static final Set<String> PATH_OPTIONS =
+      Set.of(
+          "--class-path",
+          "-classpath",
+          "-cp",
+          "--module-path",
+          "-p",
+          "--upgrade-module-path",
+          "--processor-path",
+          "-processorpath",
+          "--processor-module-path");
+
+  /** Default maximum number of pooled file managers. */
+  public static final int DEFAULT_CAPACITY = 16;
+
+  private final JavaCompiler compiler;
+  private final StandardJavaFileManager probe;
+  private final int capacity;
+  private final Map<String, Deque<Pooled>> pool = new LinkedHashMap<>(16, 0.75f, true);
+  private int size = 0;
+
+  public JavaCompilerRunner() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create a runner that pools up to the given number of file managers.
+   *
+   * @param capacity The maximum number of pooled file managers
+   */
+  public JavaCompilerRunner(int capacity) {
+    if (capacity < 0) throw new IllegalArgumentException("Negative capacity: " + capacity);
+    this.compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) throw new IllegalStateException("No system Java compiler available");
+    this.probe = compiler.getStandardFileManager(null, null, null);
+    this.capacity = capacity;
+  }
+
+  /**
+   * Return {@code true} if the given arguments describe a compilation.
+   *
+   * <p>Only compilations are run by this runner, other invocations like {@code javac --version}
+   * should be passed to the {@code javac} tool provider.
+   *
+   * @param args The arguments as they would be passed to the {@code javac} tool
+   * @return {@code true} if the arguments contain an output directory, modules, or source files
+   */
+  public static boolean isCompilation(String... args) {
+    for (var arg : args) {
+      if (arg.equals("-d") || arg.equals("--module") || arg.endsWith(".java")) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Compile with the given command line arguments.
+   *
+   * @param out The writer receiving additional output of the compiler
+   * @param err The writer receiving diagnostics
+   * @param args The arguments as they would be passed to the {@code javac} tool
+   * @return The exit code, {@code 0} on success
+   */
+  public int run(Writer out, Writer err, String... args) {
+    var locationOptions = new ArrayList<String>();
+    var compilerOptions = new ArrayList<String>();
+    var classes = new ArrayList<String>();
+    var files = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      var arg = args[i];
+      if (!arg.startsWith("-")) {
+        (arg.endsWith(".java") ? files : classes).add(arg);
+        continue;
+      }
+      var name = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+      var managed = probe.isSupportedOption(name) >= 0;
+      var count = managed ? probe.isSupportedOption(arg) : compiler.isSupportedOption(arg);
+      var end = Math.min(args.length, i + 1 + Math.max(0, count));
+      var options = managed ? locationOptions : compilerOptions;
+      options.addAll(List.of(args).subList(i, end));
+      i = end - 1;
+    }
+
+    var key = String.join("\0", locationOptions);
+    var stamp = stamp(locationOptions);
+    var pooled = take(key, stamp);
+    var options = new ArrayList<String>();
+    if (pooled == null) {
+      pooled = new Pooled(compiler.getStandardFileManager(null, null, null), stamp);
+      options.addAll(locationOptions);
+    }
+    options.addAll(compilerOptions);
+    var manager = new CapturingFileManager(pooled.manager);
+    var diagnostics = new DiagnosticPrinter(new PrintWriter(err, true));
+    var reusable = false;
+    try {
+      var units = pooled.manager.getJavaFileObjectsFromStrings(files);
+      var task = compiler.getTask(out, manager, diagnostics, options, classes, units);
+      var success = task.call();
+      reusable = true;
+      diagnostics.printCounts();
+      manager.writeCapturedFiles();
+      return success ? 0 : 1;
+    } catch (IllegalArgumentException | IllegalStateException exception) {
+      printError(err, exception);
+      return 2;
+    } catch (UncheckedIOException exception) {
+      printError(err, exception);
+      return 3;
+    } finally {
+      if (reusable) give(key, pooled);
+      else close(pooled.manager);
+    }
+  }
+
+  /** Return the number of pooled file managers. */
+  synchronized int size() {
+    return size;
+  }
+
+  @Override
+  public synchronized void close() {
+    for (var queue : pool.values()) for (var pooled : queue) close(pooled.manager);
+    pool.clear();
+    size = 0;
+    close(probe);
+  }
+
+  /** Remove and return a pooled file manager, closing those of the key with a stale stamp. */
+  private synchronized Pooled take(String key, String stamp) {
+    var queue = pool.get(key);
+    if (queue == null) return null;
+    while (!queue.isEmpty()) {
+      var candidate = queue.poll();
+      size--;
+      if (candidate.stamp.equals(stamp)) return candidate;
+      close(candidate.manager);
+    }
+    return null;
+  }
+
+  /** Add a file manager to the pool, closing least recently used ones if the pool is full. */
+  private synchronized void give(String key, Pooled candidate) {
+    pool.computeIfAbsent(key, __ -> new ArrayDeque<>()).add(candidate);
+    size++;
+    var iterator = pool.values().iterator();
+    while (size > capacity && iterator.hasNext()) {
+      var queue = iterator.next();
+      while (size > capacity && !queue.isEmpty()) {
+        close(queue.poll().manager);
+        size--;
+      }
+      if (queue.isEmpty()) iterator.remove();
+    }
+  }
+
+  private static void close(StandardJavaFileManager manager) {
+    try {
+      manager.close();
+    } catch (IOException exception) {
+      // ignore
+    }
+  }
+
+  /** Print the message of the exception, prefixed like a diagnostic unless it already is. */
+  private static void printError(Writer err, RuntimeException exception) {
+    var message = String.valueOf(exception.getMessage());
+    new PrintWriter(err, true).println(message.startsWith("error:") ? message : "error: " + message);
+  }
+
+  /** Return sizes and modification times of all archives and directories on path options. */
+  private static String stamp(List<String> locationOptions) {
+    var stamp = new StringJoiner("\n");
+    for (int i = 0; i < locationOptions.size() - 1; i++) {
+      if (!PATH_OPTIONS.contains(locationOptions.get(i))) continue;
+      for (var element : locationOptions.get(i + 1).split(File.pathSeparator)) {
+        var path = Path.of(element);
+        var paths = Files.isDirectory(path) ? Paths.list(path, __ -> true) : List.of(path);
+        for (var file : paths) {
+          try {
+            stamp.add(file + " " + Files.size(file) + " " + Files.getLastModifiedTime(file));
+          } catch (IOException exception) {
+            stamp.add(file + " ?");
+          }
+        }
+      }
+    }
+    return stamp.toString();
+  }
+
+  /** A diagnostic listener that prints diagnostics and their counts like the javac tool. */
+  private static final class DiagnosticPrinter implements DiagnosticListener<JavaFileObject> {
+
+    private final PrintWriter writer;
+    private int errors = 0;
+    private int warnings = 0;
+
+    DiagnosticPrinter(PrintWriter writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public synchronized void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) errors++;
+      if (diagnostic.getKind() == Diagnostic.Kind.WARNING) warnings++;
+      if (diagnostic.getKind() == Diagnostic.Kind.MANDATORY_WARNING) warnings++;
+      writer.println(diagnostic);
+    }
+
+    synchronized void printCounts() {
+      if (errors > 0) writer.println(errors + (errors == 1 ? " error" : " errors"));
+      if (warnings > 0) writer.println(warnings + (warnings == 1 ? " warning" : " warnings"));
+    }
+  }
+
+  /** A file manager with the stamp of the paths it was created for. */
+  private static final class Pooled {
+    private final StandardJavaFileManager manager;
+    private final String stamp;
+
+    private Pooled(StandardJavaFileManager manager, String stamp) {
+      this.manager = manager;
+      this.stamp = stamp;
+    }
+  }
+
+  /** A file manager that captures class files written to output locations in memory. */
+  private static final class CapturingFileManager
+      extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    private final Map<Path, ByteArrayOutputStream> captured = new ConcurrentHashMap<>();
+
+    CapturingFileManager(StandardJavaFileManager manager) {
+      super(manager);
+    }
+
+    void writeCapturedFiles() {
+      var directories = new HashSet<Path>();
+      for (var entry : captured.entrySet()) {
+        var file = entry.getKey();
+        try {
+          var parent = file.getParent();
+          if (parent != null && directories.add(parent)) {
+            Files.createDirectories(parent);
+          }
+          Files.write(file, entry.getValue().toByteArray());
+        } catch (IOException exception) {
+          throw new UncheckedIOException("Write class file failed: " + file, exception);
+        }
+      }
+    }
+
+    /**
+     * Wrap module-oriented output locations.
+     *
+     * <p>With {@code --release} the compiler installs a file manager for the target platform that
+     * claims all location handlers created by standard file managers. A wrapped location is routed
+     * back to this file manager.
+     */
+    @Override
+    public Location getLocationForModule(Location location, String name) throws IOException {
+      var module = super.getLocationForModule(unwrap(location), name);
+      return module != null && location.isOutputLocation() ? new OutputLocation(module) : module;
+    }
+
+    @Override
+    public Location getLocationForModule(Location location, JavaFileObject fo) throws IOException {
+      var module = super.getLocationForModule(unwrap(location), fo);
+      return module != null && location.isOutputLocation() ? new OutputLocation(module) : module;
+    }
+
+    @Override
+    public boolean hasLocation(Location location) {
+      return super.hasLocation(unwrap(location));
+    }
+
+    @Override
+    public boolean contains(Location location, FileObject fo) throws IOException {
+      return super.contains(unwrap(location), fo);
+    }
+
+    @Override
+    public String inferModuleName(Location location) throws IOException {
+      return super.inferModuleName(unwrap(location));
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+      return super.inferBinaryName(unwrap(location), file);
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(
+        Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+        throws IOException {
+      return super.list(unwrap(location), packageName, kinds, recurse);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForInput(
+        Location location, String className, JavaFileObject.Kind kind) throws IOException {
+      return super.getJavaFileForInput(unwrap(location), className, kind);
+    }
+
+    @Override
+    public FileObject getFileForInput(Location location, String packageName, String relativeName)
+        throws IOException {
+      return super.getFileForInput(unwrap(location), packageName, relativeName);
+    }
+
+    @Override
+    public FileObject getFileForOutput(
+        Location location, String packageName, String relativeName, FileObject sibling)
+        throws IOException {
+      return super.getFileForOutput(unwrap(location), packageName, relativeName, sibling);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+        Location location, String className, JavaFileObject.Kind kind, FileObject sibling)
+        throws IOException {
+      var file = super.getJavaFileForOutput(unwrap(location), className, kind, sibling);
+      if (kind != JavaFileObject.Kind.CLASS) return file;
+      var path = Path.of(file.toUri());
+      return new SimpleJavaFileObject(file.toUri(), kind) {
+        @Override
+        public OutputStream openOutputStream() {
+          var stream = new ByteArrayOutputStream();
+          captured.put(path, stream);
+          return stream;
+        }
+      };
+    }
+
+    private static Location unwrap(Location location) {
+      return location instanceof OutputLocation ? ((OutputLocation) location).module : location;
+    }
+  }
+
+  /** A module-oriented output location wrapper. */
+  private static final class OutputLocation implements JavaFileManager.Location {
+
+    private final JavaFileManager.Location module;
+
+    OutputLocation(JavaFileManager.Location module) {
+      this.module = module;
+    }
+
+    @Override
+    public String getName() {
+      return module.getName();
+    }
+
+    @Override
+    public boolean isOutputLocation() {
+      return true;
+    }
+
+    @Override
+    public boolean isModuleOrientedLocation() {
+      return false;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) return true;
+      return other instanceof OutputLocation && module.equals(((OutputLocation) other).module);
+    }
+
+    @Override
+    public int hashCode() {
+      return module.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return module.toString();
+    }
+  }
+}
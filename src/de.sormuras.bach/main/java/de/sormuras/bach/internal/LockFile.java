@@ -0,0 +1,88 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import de.sormuras.bach.project.Link;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A lock file records the links of all resolved external modules including sizes and digests.
+ *
+ * <p>Each non-empty line that doesn't start with {@code #} consists of a module name and a URI,
+ * separated by a single space. Sizes and digests are stored as fragments of the URI.
+ */
+public final class LockFile {
+
+  /** The message digest algorithm used to lock the content of a module. */
+  public static final String ALGORITHM = Resources.MARKED_ALGORITHM;
+
+  /** Read all locked links from the given file, mapped by their module names. */
+  public static Map<String, Link> read(Path file) {
+    try {
+      var links = new TreeMap<String, Link>();
+      for (var line : Files.readAllLines(file)) {
+        var trimmed = line.strip();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+        var split = trimmed.split(" ", 2);
+        if (split.length != 2) throw new IllegalStateException("Malformed line: " + line);
+        links.put(split[0], Link.of(split[0], split[1].strip()));
+      }
+      return links;
+    } catch (Exception e) {
+      throw new RuntimeException("Read lock file failed: " + file, e);
+    }
+  }
+
+  /** Write the given links sorted by their module names to the given file. */
+  public static void write(Path file, Collection<Link> links) {
+    var lines = new ArrayList<String>();
+    lines.add("# Links of resolved external modules, delete this file to resolve them again");
+    var sorted = new ArrayList<>(links);
+    sorted.sort(Comparator.comparing(Link::module));
+    for (var link : sorted) lines.add(link.module() + ' ' + link.uri());
+    try {
+      var parent = file.toAbsolutePath().getParent();
+      var temporary = Files.createTempFile(Files.createDirectories(parent), "", ".tmp");
+      Files.write(temporary, lines);
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (Exception e) {
+      throw new RuntimeException("Write lock file failed: " + file, e);
+    }
+  }
+
+  /** Return a link with size and digest of the given modular JAR file, unless already present. */
+  public static Link lock(Link link, Path jar) {
+    var locked = link;
+    if (link.findSize().isEmpty()) locked = locked.withSize(Paths.size(jar));
+    if (!link.findDigests().containsKey(ALGORITHM)) {
+      var verified = Resources.findVerifiedDigest(jar, ALGORITHM);
+      var digest = verified.orElseGet(() -> new Fingerprint().addContent(jar).toHexString());
+      locked = locked.withDigest(ALGORITHM, digest);
+    }
+    return locked;
+  }
+
+  private LockFile() {}
+}
@@ -0,0 +1,258 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Describe the application binary interface of a compiled module.
+ *
+ * <p>The description of an exploded module consists of its module directives and of all public and
+ * protected signatures, including values of compile-time constants, of the classes contained in
+ * exported packages. Changing a method body or a non-exported class doesn't change it.
+ */
+public final class ModuleApi {
+
+  /** Return the fingerprint of the API of the given exploded module. */
+  public static String fingerprint(Path directory) {
+    return new Fingerprint().add(describe(directory)).toHexString();
+  }
+
+  /** Return lines describing the API of the given exploded module. */
+  public static List<String> describe(Path directory) {
+    var lines = new ArrayList<String>();
+    var info = directory.resolve("module-info.class");
+    if (Files.notExists(info)) return List.of();
+    try (var stream = Files.newInputStream(info)) {
+      var module = ModuleDescriptor.read(stream);
+      lines.add("module " + module.name());
+      lines.addAll(sorted("requires", module.requires()));
+      lines.addAll(sorted("exports", module.exports()));
+      lines.addAll(sorted("opens", module.opens()));
+      lines.addAll(sorted("uses", module.uses()));
+      lines.addAll(sorted("provides", module.provides()));
+      for (var exported : new TreeSet<>(module.exports())) {
+        var folder = directory.resolve(exported.source().replace('.', '/'));
+        if (!Files.isDirectory(folder)) continue;
+        for (var file : Paths.list(folder, ModuleApi::isClassFile)) {
+          lines.addAll(new Reader(Files.readAllBytes(file)).describe());
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Describe module API failed: " + directory, e);
+    }
+    return List.copyOf(lines);
+  }
+
+  private static boolean isClassFile(Path path) {
+    return Files.isRegularFile(path) && Paths.name(path).endsWith(".class");
+  }
+
+  private static List<String> sorted(String directive, Iterable<?> elements) {
+    var lines = new TreeSet<String>();
+    for (var element : elements) lines.add(directive + ' ' + element);
+    return List.copyOf(lines);
+  }
+
+  /** A minimal class file reader, see JVMS chapter 4 "The class File Format". */
+  static final class Reader {
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_SYNTHETIC = 0x1000;
+    private static final int CLASS_MASK = 0x0001 | 0x0010 | 0x0200 | 0x0400 | 0x2000 | 0x4000;
+    private static final int FIELD_MASK = 0x0001 | 0x0004 | 0x0008 | 0x0010 | 0x0040 | 0x0080;
+    private static final int METHOD_MASK = 0x0001 | 0x0004 | 0x0008 | 0x0010 | 0x0080 | 0x0400;
+
+    /** Class type in a descriptor or signature, for example {@code Lpkg/Name;}. */
+    private static final Pattern TYPE = Pattern.compile("L([^;<>\\[\\s]+)[;<]");
+
+    private final DataInputStream in;
+    private int[] tags;
+    private Object[] values;
+
+    Reader(byte[] bytes) {
+      this.in = new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /** Return sorted lines describing the accessible signatures or an empty list. */
+    List<String> describe() throws IOException {
+      if (in.readInt() != 0xCAFEBABE) throw new IOException("Not a class file");
+      in.readUnsignedShort(); // minor version
+      in.readUnsignedShort(); // major version
+      readConstantPool();
+      var access = in.readUnsignedShort();
+      var name = className(in.readUnsignedShort());
+      var superName = className(in.readUnsignedShort());
+      var interfaces = new ArrayList<String>();
+      for (int i = in.readUnsignedShort(); i > 0; i--) {
+        interfaces.add(className(in.readUnsignedShort()));
+      }
+      if ((access & ACC_PUBLIC) == 0 || (access & ACC_SYNTHETIC) != 0) return List.of();
+      var members = new TreeSet<String>();
+      for (int i = in.readUnsignedShort(); i > 0; i--) readMember("field", FIELD_MASK, members);
+      for (int i = in.readUnsignedShort(); i > 0; i--) readMember("method", METHOD_MASK, members);
+      var attributes = readAttributes();
+      var lines = new ArrayList<String>();
+      var flags = access & CLASS_MASK;
+      var type = String.format("class %s %04x %s %s", name, flags, superName, interfaces);
+      lines.add(join(type, attributes));
+      for (var member : members) lines.add(name + ' ' + member);
+      return lines;
+    }
+
+    /** Return internal names of all classes and interfaces referenced in the constant pool. */
+    Set<String> references() throws IOException {
+      if (in.readInt() != 0xCAFEBABE) throw new IOException("Not a class file");
+      in.readUnsignedShort(); // minor version
+      in.readUnsignedShort(); // major version
+      readConstantPool();
+      var names = new TreeSet<String>();
+      for (int index = 1; index < tags.length; index++) {
+        if (tags[index] == 7) addTypes(names, className(index), true);
+        if (tags[index] == 1) addTypes(names, utf8(index), false);
+      }
+      return names;
+    }
+
+    /** Add a class name or all class types of a descriptor or signature to the given set. */
+    private static void addTypes(Set<String> names, String string, boolean className) {
+      if (className && !string.startsWith("[")) {
+        names.add(string);
+        return;
+      }
+      var matcher = TYPE.matcher(string);
+      while (matcher.find()) names.add(matcher.group(1));
+    }
+
+    private void readConstantPool() throws IOException {
+      var count = in.readUnsignedShort();
+      tags = new int[count];
+      values = new Object[count];
+      for (int index = 1; index < count; index++) {
+        var tag = in.readUnsignedByte();
+        tags[index] = tag;
+        switch (tag) {
+          case 1: // Utf8
+            values[index] = in.readUTF();
+            break;
+          case 3: // Integer
+            values[index] = in.readInt();
+            break;
+          case 4: // Float
+            values[index] = in.readFloat();
+            break;
+          case 5: // Long
+            values[index] = in.readLong();
+            index++; // takes up two entries
+            break;
+          case 6: // Double
+            values[index] = in.readDouble();
+            index++; // takes up two entries
+            break;
+          case 7: // Class
+          case 8: // String
+          case 16: // MethodType
+          case 19: // Module
+          case 20: // Package
+            values[index] = in.readUnsignedShort();
+            break;
+          case 15: // MethodHandle
+            in.skipBytes(3);
+            break;
+          case 9: // Fieldref
+          case 10: // Methodref
+          case 11: // InterfaceMethodref
+          case 12: // NameAndType
+          case 17: // Dynamic
+          case 18: // InvokeDynamic
+            in.skipBytes(4);
+            break;
+          default:
+            throw new IOException("Unknown constant pool tag " + tag + " at index " + index);
+        }
+      }
+    }
+
+    private void readMember(String kind, int mask, TreeSet<String> members) throws IOException {
+      var access = in.readUnsignedShort();
+      var name = utf8(in.readUnsignedShort());
+      var descriptor = utf8(in.readUnsignedShort());
+      var attributes = readAttributes();
+      if ((access & (ACC_PUBLIC | ACC_PROTECTED)) == 0 || (access & ACC_SYNTHETIC) != 0) return;
+      var member = String.format("%s %04x %s %s", kind, access & mask, name, descriptor);
+      members.add(join(member, attributes));
+    }
+
+    /** Read all attributes and return descriptions of those that are part of a signature. */
+    private List<String> readAttributes() throws IOException {
+      var attributes = new ArrayList<String>();
+      for (int i = in.readUnsignedShort(); i > 0; i--) {
+        var name = utf8(in.readUnsignedShort());
+        var length = in.readInt();
+        switch (name) {
+          case "ConstantValue":
+            attributes.add("= " + constant(in.readUnsignedShort()));
+            break;
+          case "Signature":
+            attributes.add("signature " + utf8(in.readUnsignedShort()));
+            break;
+          case "Exceptions":
+            var exceptions = new ArrayList<String>();
+            for (int j = in.readUnsignedShort(); j > 0; j--) {
+              exceptions.add(className(in.readUnsignedShort()));
+            }
+            attributes.add("throws " + exceptions);
+            break;
+          default:
+            in.skipBytes(length);
+        }
+      }
+      return attributes;
+    }
+
+    private static String join(String head, List<String> attributes) {
+      return attributes.isEmpty() ? head : head + ' ' + String.join(" ", attributes);
+    }
+
+    private String utf8(int index) {
+      return (String) values[index];
+    }
+
+    private String className(int index) {
+      return index == 0 ? "" : utf8((Integer) values[index]);
+    }
+
+    private String constant(int index) {
+      if (tags[index] == 8) return '"' + utf8((Integer) values[index]) + '"';
+      return tags[index] + ":" + values[index];
+    }
+  }
+
+  private ModuleApi() {}
+}
@@ -0,0 +1,124 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.spi.ToolProvider;
+
+/**
+ * A bounded cache of module layers defined to find tool providers.
+ *
+ * <p>A module layer is reused as long as the entries of its module paths are unchanged, only tool
+ * provider instances are created for each lookup. The least recently used layer is evicted when
+ * the capacity is exceeded, all layers are evicted on {@link #clear()}.
+ */
+public final class ModuleLayers {
+
+  private final Map<String, CachedLayer> layers;
+
+  public ModuleLayers(int capacity) {
+    this.layers =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CachedLayer> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  /** Return list of tool providers found by resolving the specified module. */
+  public List<ToolProvider> findTools(String module, List<Path> modulePaths) {
+    var key = module + '\n' + modulePaths;
+    var stamp = stamp(modulePaths);
+    CachedLayer cached;
+    synchronized (layers) {
+      cached = layers.get(key);
+    }
+    if (cached == null || !cached.stamp.equals(stamp)) {
+      cached = new CachedLayer(stamp, Modules.defineLayer(module, modulePaths));
+      synchronized (layers) {
+        layers.put(key, cached);
+      }
+    }
+    return Modules.findTools(cached.layer);
+  }
+
+  /** Return the number of cached module layers. */
+  public int size() {
+    synchronized (layers) {
+      return layers.size();
+    }
+  }
+
+  /** Evict all cached module layers, allowing their class loaders to be collected. */
+  public void clear() {
+    synchronized (layers) {
+      layers.clear();
+    }
+  }
+
+  /**
+   * Return sizes and modification times of the given paths and their direct entries.
+   *
+   * <p>Files nested deeper are not visited: a JAR file is stamped as a whole and an exploded module
+   * directory by its modification time, which changes when entries are added or removed. Classes
+   * directories are deleted before they are compiled into again.
+   */
+  static String stamp(List<Path> paths) {
+    var joiner = new StringJoiner("\n");
+    for (var path : paths) {
+      if (Files.notExists(path)) continue;
+      joiner.add(stamp(path));
+      if (!Files.isDirectory(path)) continue;
+      try (var stream = Files.list(path)) {
+        stream.sorted().map(ModuleLayers::stamp).forEach(joiner::add);
+      } catch (IOException exception) {
+        throw new UncheckedIOException(exception);
+      }
+    }
+    return joiner.toString();
+  }
+
+  private static String stamp(Path path) {
+    try {
+      return path + " " + Files.size(path) + " " + Files.getLastModifiedTime(path);
+    } catch (IOException exception) {
+      return path + " ?";
+    }
+  }
+
+  /** A module layer with the stamp of the module paths it was defined from. */
+  private static final class CachedLayer {
+    private final String stamp;
+    private final ModuleLayer layer;
+
+    private CachedLayer(String stamp, ModuleLayer layer) {
+      this.stamp = stamp;
+      this.layer = layer;
+    }
+  }
+}
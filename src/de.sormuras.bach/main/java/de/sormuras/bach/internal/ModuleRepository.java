@@ -0,0 +1,158 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Optional;
+
+/**
+ * A user-level content-addressable repository of modular JAR files shared by all projects.
+ *
+ * <p>Contents are stored by their SHA-256 digest. An index maps keys like {@code module@version}
+ * to a digest and a size. Library directories of projects are filled with hard links to stored
+ * contents, which lets each external module be downloaded at most once per machine. Copying is
+ * used as a fallback when linking is unsupported, for example across file systems. Digests that
+ * were verified while downloading a file are reused instead of reading the file again.
+ *
+ * <p>Stored contents are made read-only, so that linked library files can't be written into: a
+ * file in a library directory is never rewritten but replaced, see {@link Resources}.
+ */
+public final class ModuleRepository {
+
+  /** Return the directory of the module repository, which defaults to {@code ~/.bach/modules}. */
+  public static Path ofSystemDirectory() {
+    var home = Path.of(System.getProperty("user.home"), ".bach", "modules").toString();
+    return Path.of(System.getProperty("bach.module-repository.directory", home));
+  }
+
+  private final Path directory;
+
+  public ModuleRepository(Path directory) {
+    this.directory = directory;
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  /**
+   * Return the stored content indexed by the given key.
+   *
+   * @param key The key, like {@code module@version}, of the content
+   * @return The path of the stored content, named by its SHA-256 digest, or an empty optional if
+   *     nothing valid is stored
+   */
+  public Optional<Path> find(String key) {
+    var index = index(key);
+    if (Files.notExists(index)) return Optional.empty();
+    try {
+      // line format: "<hash> <size>"
+      var split = Files.readString(index).strip().split(" ");
+      var content = content(split[0]);
+      if (Files.notExists(content)) return Optional.empty();
+      if (Files.size(content) != Long.parseLong(split[1])) return Optional.empty();
+      return Optional.of(content);
+    } catch (Exception e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Store the given file and index it by the given key.
+   *
+   * <p>The file is linked into the repository. If an equal content is already stored, the file is
+   * replaced by a link to that content, leaving a single copy of the bytes on the disk.
+   *
+   * @param key The key, like {@code module@version}, of the content
+   * @param file The file to store
+   * @return The path of the stored content
+   */
+  public Path store(String key, Path file) {
+    try {
+      var verified = Resources.findVerifiedDigest(file, Resources.MARKED_ALGORITHM);
+      var hash = verified.orElseGet(() -> new Fingerprint().addContent(file).toHexString());
+      var content = content(hash);
+      if (Files.notExists(content)) {
+        Files.createDirectories(content.getParent());
+        try {
+          Files.createLink(content, file);
+        } catch (FileAlreadyExistsException e) {
+          // stored concurrently by another build
+        } catch (UnsupportedOperationException | IOException e) {
+          var temporary = Files.createTempFile(content.getParent(), hash, ".tmp");
+          Files.copy(file, temporary, StandardCopyOption.REPLACE_EXISTING);
+          try {
+            Files.move(temporary, content, StandardCopyOption.ATOMIC_MOVE);
+          } catch (FileAlreadyExistsException exception) {
+            Files.deleteIfExists(temporary);
+          }
+        }
+      }
+      protect(content);
+      if (!Files.isSameFile(content, file)) Paths.linkOrCopy(content, file);
+      var index = index(key);
+      var temporary = Files.createTempFile(Files.createDirectories(index.getParent()), "", ".tmp");
+      Files.writeString(temporary, hash + ' ' + Files.size(content) + '\n');
+      Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING);
+      return content;
+    } catch (Exception e) {
+      throw new RuntimeException("Store in module repository failed: " + key, e);
+    }
+  }
+
+  /**
+   * Link the content indexed by the given key to the target file.
+   *
+   * @param key The key, like {@code module@version}, of the content
+   * @param target The file to create
+   * @return The target file or an empty optional if nothing is stored for the key
+   */
+  public Optional<Path> link(String key, Path target) {
+    var content = find(key);
+    if (content.isEmpty()) return Optional.empty();
+    try {
+      Files.createDirectories(target.toAbsolutePath().getParent());
+      return Optional.of(Paths.linkOrCopy(content.get(), target));
+    } catch (Exception e) {
+      throw new RuntimeException("Link from module repository failed: " + key, e);
+    }
+  }
+
+  /** Remove write permissions of the given stored content, if supported by its file system. */
+  private static void protect(Path content) {
+    if (!Paths.isViewSupported(content, "posix")) return;
+    try {
+      Files.setPosixFilePermissions(content, PosixFilePermissions.fromString("r--r--r--"));
+    } catch (Exception e) {
+      // a content stored by another user remains as protected as that user left it
+    }
+  }
+
+  private Path index(String key) {
+    return directory.resolve("index").resolve(key);
+  }
+
+  private Path content(String hash) {
+    return directory.resolve("contents").resolve(hash.substring(0, 2)).resolve(hash);
+  }
+}
@@ -20,6 +20,7 @@ package de.sormuras.bach.internal;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.lang.module.Configuration;
 import java.lang.module.FindException;
 import java.lang.module.ModuleDescriptor;
 import java.lang.module.ModuleDescriptor.Requires;
@@ -32,6 +33,7 @@ import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.ServiceLoader;
@@ -95,20 +97,47 @@ public final class Modules {
     return mains.size() == 1 ? Optional.of(mains.get(0).name()) : Optional.empty();
   }
 
-  /** Return list of tool providers found by resolving the specified module. */
+  /**
+   * Return list of tool providers found by resolving the specified module.
+   *
+   * <p>A new module layer is defined for each invocation, use {@link ModuleLayers} to reuse layers
+   * while module paths are unchanged.
+   */
   public static List<ToolProvider> findTools(String module, List<Path> modulePaths) {
+    return findTools(defineLayer(module, modulePaths));
+  }
+
+  /** Return list of new tool provider instances found in the given module layer. */
+  public static List<ToolProvider> findTools(ModuleLayer layer) {
+    var services = ServiceLoader.load(layer, ToolProvider.class);
+    return services.stream().map(ServiceLoader.Provider::get).collect(Collectors.toList());
+  }
+
+  /** Define a module layer with one class loader for the specified module and its requires. */
+  public static ModuleLayer defineLayer(String module, List<Path> modulePaths) {
+    var configuration = resolve(module, modulePaths);
+    var parent = ClassLoader.getPlatformClassLoader();
+    var boot = ModuleLayer.boot();
+    var controller = ModuleLayer.defineModulesWithOneLoader(configuration, List.of(boot), parent);
+    var layer = controller.layer();
+    var loader = layer.findLoader(module);
+    loader.setDefaultAssertionStatus(true);
+    return layer;
+  }
+
+  /**
+   * Resolve the specified module and bind service providers found on the module paths.
+   *
+   * <p>System modules that are required by modules on the module paths but not resolved in the
+   * boot layer, like {@code jdk.httpserver}, are resolved as well. No module layer is defined and
+   * no class is loaded by this method.
+   */
+  public static Configuration resolve(String module, List<Path> modulePaths) {
     var roots = Set.of(module);
     var finder = ModuleFinder.of(modulePaths.toArray(Path[]::new));
-    var parent = ClassLoader.getPlatformClassLoader();
+    var system = ofSystemModulesMissingInBootLayer(finder);
     try {
-      var boot = ModuleLayer.boot();
-      var configuration = boot.configuration().resolveAndBind(finder, ModuleFinder.of(), roots);
-      var controller = ModuleLayer.defineModulesWithOneLoader(configuration, List.of(boot), parent);
-      var layer = controller.layer();
-      var loader = layer.findLoader(module);
-      loader.setDefaultAssertionStatus(true);
-      var services = ServiceLoader.load(layer, ToolProvider.class);
-      return services.stream().map(ServiceLoader.Provider::get).collect(Collectors.toList());
+      return ModuleLayer.boot().configuration().resolveAndBind(finder, system, roots);
     } catch (FindException | ResolutionException exception) {
       var message = new StringJoiner(System.lineSeparator());
       message.add(exception.getMessage());
@@ -123,6 +152,34 @@ public final class Modules {
     }
   }
 
+  /** Return a finder of system modules required by the given finder's modules but not booted. */
+  private static ModuleFinder ofSystemModulesMissingInBootLayer(ModuleFinder finder) {
+    var boot = ModuleLayer.boot();
+    var system = ModuleFinder.ofSystem();
+    var references = new HashMap<String, ModuleReference>();
+    var pending = new ArrayDeque<String>();
+    finder.findAll().forEach(reference -> pending.addAll(required(reference.descriptor())));
+    while (!pending.isEmpty()) {
+      var name = pending.pop();
+      if (references.containsKey(name) || boot.findModule(name).isPresent()) continue;
+      var reference = system.find(name);
+      if (reference.isEmpty()) continue;
+      references.put(name, reference.get());
+      pending.addAll(required(reference.get().descriptor()));
+    }
+    return new ModuleFinder() {
+      @Override
+      public Optional<ModuleReference> find(String name) {
+        return Optional.ofNullable(references.get(name));
+      }
+
+      @Override
+      public Set<ModuleReference> findAll() {
+        return Set.copyOf(references.values());
+      }
+    };
+  }
+
   /** Parse module definition from the given file. */
   public static ModuleDescriptor describe(Path info) {
     try {
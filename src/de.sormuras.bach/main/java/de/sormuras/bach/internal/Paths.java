@@ -18,6 +18,7 @@
 package de.sormuras.bach.internal;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
@@ -175,5 +176,15 @@ public final class Paths {
     }
   }
 
+  /** Replace the target with a hard link to the source file or, if unsupported, with a copy. */
+  public static Path linkOrCopy(Path source, Path target) throws IOException {
+    Files.deleteIfExists(target);
+    try {
+      return Files.createLink(target, source);
+    } catch (UnsupportedOperationException | IOException e) {
+      return Files.copy(source, target);
+    }
+  }
+
   private Paths() {}
 }
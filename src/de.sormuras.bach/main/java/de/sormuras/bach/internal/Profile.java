@@ -0,0 +1,123 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A profile table of named durations rendered as Markdown, with trends against previous logbooks.
+ *
+ * <p>A table is introduced by a {@code ### HEADING} line and lists one row per name, ordered by
+ * descending duration: the duration in milliseconds, its share of the total build duration, the
+ * trend against the average duration recorded in previous logbooks, and the name itself. As all
+ * values are written in plain form, tables of previous logbooks are read back for comparison.
+ */
+public final class Profile {
+
+  /** Return the last {@code depth} logbook files in the given directory in natural order. */
+  public static List<Path> history(Path directory, int depth) {
+    if (depth < 1 || !Files.isDirectory(directory)) return List.of();
+    var files = Paths.list(directory, path -> Paths.name(path).startsWith("logbook-"));
+    return files.subList(Math.max(0, files.size() - depth), files.size());
+  }
+
+  /**
+   * Read rows of a profile table from the given logbook files.
+   *
+   * @param files The logbook files to read
+   * @param heading The heading of the table to read
+   * @return A map of names to durations in milliseconds, one element per file listing the name
+   */
+  public static Map<String, List<Long>> read(List<Path> files, String heading) {
+    var history = new TreeMap<String, List<Long>>();
+    for (var file : files) {
+      try {
+        var inside = false;
+        for (var line : Files.readAllLines(file)) {
+          if (line.startsWith("#")) inside = line.equals("### " + heading);
+          if (!inside || !line.startsWith("|")) continue;
+          var cells = line.split("\\|");
+          if (cells.length < 5 || !cells[4].startsWith("`")) continue;
+          try {
+            var millis = Long.parseLong(cells[1].strip());
+            var name = cells[4].replace("`", "");
+            history.computeIfAbsent(name, key -> new ArrayList<>()).add(millis);
+          } catch (NumberFormatException exception) {
+            // ignore header and malformed rows
+          }
+        }
+      } catch (IOException exception) {
+        throw new UncheckedIOException("Read logbook failed: " + file, exception);
+      }
+    }
+    return history;
+  }
+
+  /**
+   * Render a profile table of the longest durations.
+   *
+   * @param heading The heading of the table
+   * @param durations A map of names to durations in milliseconds
+   * @param total The total build duration in milliseconds
+   * @param history A map of names to durations recorded in previous logbooks
+   * @param limit The maximum number of rows
+   * @return Lines of Markdown, empty if there are no durations
+   */
+  public static List<String> table(
+      String heading,
+      Map<String, Long> durations,
+      long total,
+      Map<String, List<Long>> history,
+      int limit) {
+    if (durations.isEmpty()) return List.of();
+    var entries = new ArrayList<>(durations.entrySet());
+    entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+    var md = new ArrayList<String>();
+    md.add("");
+    md.add("### " + heading);
+    md.add("");
+    md.add("|Duration [ms]| Share | Trend |Name");
+    md.add("|------------:|------:|------:|----");
+    for (var entry : entries.subList(0, Math.min(limit, entries.size()))) {
+      var millis = entry.getValue();
+      var share = total > 0 ? 100.0 * millis / total : 0.0;
+      var trend = trend(millis, history.getOrDefault(entry.getKey(), List.of()));
+      var format = "|%13d|%6.1f%%|%7s|`%s`";
+      md.add(String.format(Locale.ROOT, format, millis, share, trend, entry.getKey()));
+    }
+    return md;
+  }
+
+  /** Return the relative change against the average of previous durations, or {@code new}. */
+  static String trend(long millis, List<Long> previous) {
+    if (previous.isEmpty()) return "new";
+    var average = previous.stream().mapToLong(Long::longValue).average().orElseThrow();
+    if (average == 0) return millis == 0 ? "+0.0%" : "new";
+    return String.format(Locale.ROOT, "%+.1f%%", 100.0 * (millis - average) / average);
+  }
+
+  private Profile() {}
+}
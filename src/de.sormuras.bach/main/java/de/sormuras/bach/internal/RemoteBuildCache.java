@@ -0,0 +1,213 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * A client of a remote build cache that shares the entries of local build caches via HTTP.
+ *
+ * <p>The protocol consists of two resources below the base URI of the remote cache:
+ *
+ * <ul>
+ *   <li>{@code ac/<key>} - the action file that lists the outputs of a tool call
+ *   <li>{@code cas/<hash>} - the content of an output file addressed by its SHA-256 hash
+ * </ul>
+ *
+ * <p>Both resources are read via {@code GET} and written via {@code PUT} requests. A server
+ * responds with status code {@code 404} to a {@code GET} request for an unknown resource. Contents
+ * are uploaded before the action file referencing them, so a client never sees an incomplete entry.
+ *
+ * @see BuildCacheServer
+ */
+public final class RemoteBuildCache {
+
+  /** Return a remote cache configured via system properties, if property URI is set. */
+  public static Optional<RemoteBuildCache> ofSystem(HttpClient http) {
+    var uri = System.getProperty("bach.build-cache.remote");
+    if (uri == null || uri.isBlank()) return Optional.empty();
+    var threshold = Long.getLong("bach.build-cache.remote.threshold", 0);
+    return Optional.of(new RemoteBuildCache(http, URI.create(uri), threshold));
+  }
+
+  private final HttpClient http;
+  private final URI uri;
+  private final long threshold;
+
+  /**
+   * Create a client of a remote build cache.
+   *
+   * @param http The HTTP client to use
+   * @param uri The base URI of the remote build cache
+   * @param threshold The number of bytes below which fetching an entry costs more than rebuilding
+   */
+  public RemoteBuildCache(HttpClient http, URI uri, long threshold) {
+    this.http = http;
+    this.uri = uri.toString().endsWith("/") ? uri : URI.create(uri + "/");
+    this.threshold = threshold;
+  }
+
+  public URI uri() {
+    return uri;
+  }
+
+  public long threshold() {
+    return threshold;
+  }
+
+  /**
+   * Download an entry from the remote cache into the local cache.
+   *
+   * @param key The key of the entry
+   * @param action The local action file to write
+   * @param contents The function mapping a content hash to a local content file
+   * @return {@code true} if the entry was downloaded, {@code false} if it's unknown or too small
+   */
+  public boolean download(String key, Path action, Function<String, Path> contents) {
+    try {
+      var response = http.send(get("ac/" + key), HttpResponse.BodyHandlers.ofString());
+      if (response.statusCode() == 404) return false;
+      check(response);
+      var lines = response.body().lines().toArray(String[]::new);
+      long size = 0;
+      var missing = new TreeSet<String>();
+      for (var line : lines) {
+        var entry = BuildCache.parse(line);
+        if (entry.isEmpty()) return false; // malformed action files are cache misses
+        var split = entry.get();
+        size += Long.parseLong(split[1]);
+        if (Files.notExists(contents.apply(split[0]))) missing.add(split[0]);
+      }
+      if (size < threshold) return false;
+      var downloads = new ArrayList<CompletableFuture<?>>();
+      for (var hash : missing) downloads.add(downloadContent(hash, contents.apply(hash)));
+      CompletableFuture.allOf(downloads.toArray(CompletableFuture[]::new)).join();
+      var directory = Files.createDirectories(action.getParent());
+      var temporary = Files.createTempFile(directory, key, ".tmp");
+      Files.write(temporary, List.of(lines));
+      Files.move(temporary, action, StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } catch (Exception e) {
+      throw new RuntimeException("Download from remote build cache failed: " + key, e);
+    }
+  }
+
+  /**
+   * Upload an entry of the local cache to the remote cache.
+   *
+   * @param key The key of the entry
+   * @param action The local action file to upload
+   * @param contents The function mapping a content hash to a local content file
+   */
+  public void upload(String key, Path action, Function<String, Path> contents) {
+    try {
+      var hashes = new TreeSet<String>();
+      for (var line : Files.readAllLines(action)) hashes.add(line.substring(0, line.indexOf(' ')));
+      var uploads = new ArrayList<CompletableFuture<?>>();
+      for (var hash : hashes) {
+        var request = put("cas/" + hash, HttpRequest.BodyPublishers.ofFile(contents.apply(hash)));
+        var response = sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        uploads.add(response.thenAccept(this::check));
+      }
+      CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).join();
+      var request = put("ac/" + key, HttpRequest.BodyPublishers.ofFile(action));
+      check(sendAsync(request, HttpResponse.BodyHandlers.discarding()).join());
+    } catch (Exception e) {
+      throw new RuntimeException("Upload to remote build cache failed: " + key, e);
+    }
+  }
+
+  private CompletableFuture<?> downloadContent(String hash, Path content) {
+    try {
+      var directory = Files.createDirectories(content.getParent());
+      var temporary = Files.createTempFile(directory, hash, ".tmp");
+      var handler = HttpResponse.BodyHandlers.ofFile(temporary);
+      var response = http.sendAsync(get("cas/" + hash), handler);
+      return response.thenAccept(it -> checkVerifyAndMove(it, hash, content));
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private void checkVerifyAndMove(HttpResponse<Path> response, String hash, Path content) {
+    var temporary = response.body();
+    try {
+      check(response);
+      var actual = new Fingerprint().addContent(temporary).toHexString();
+      if (!actual.equals(hash)) throw new IllegalStateException("Hash mismatch: " + actual);
+      Files.move(temporary, content, StandardCopyOption.REPLACE_EXISTING);
+    } catch (Exception e) {
+      throw new RuntimeException("Verify content failed: " + hash, e);
+    } finally {
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (Exception ignore) {
+        // best effort
+      }
+    }
+  }
+
+  /**
+   * Send a request and send it again if it failed with an I/O error.
+   *
+   * <p>A server may close a kept-alive connection while the client reuses it for the next request.
+   * The HTTP client retries only {@code GET} requests in that case. All requests of the protocol
+   * are idempotent, so uploads are retried here once.
+   */
+  private <T> CompletableFuture<HttpResponse<T>> sendAsync(
+      HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+    return http.sendAsync(request, handler)
+        .handle(
+            (response, throwable) -> {
+              if (throwable == null) return CompletableFuture.completedFuture(response);
+              var completion = throwable instanceof CompletionException;
+              var cause = completion ? throwable.getCause() : throwable;
+              if (cause instanceof IOException) return http.sendAsync(request, handler);
+              return CompletableFuture.<HttpResponse<T>>failedFuture(throwable);
+            })
+        .thenCompose(Function.identity());
+  }
+
+  private HttpRequest get(String path) {
+    return HttpRequest.newBuilder(uri.resolve(path)).GET().build();
+  }
+
+  private HttpRequest put(String path, HttpRequest.BodyPublisher publisher) {
+    return HttpRequest.newBuilder(uri.resolve(path)).PUT(publisher).build();
+  }
+
+  private void check(HttpResponse<?> response) {
+    var code = response.statusCode();
+    if (code >= 200 && code < 300) return;
+    throw new IllegalStateException("Unexpected status " + code + " for " + response.uri());
+  }
+}
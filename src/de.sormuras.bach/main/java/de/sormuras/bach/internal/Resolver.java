@@ -23,17 +23,42 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.function.Consumer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
-/** Resolve missing external modules. */
+/**
+ * Resolve missing external modules.
+ *
+ * <p>Resolution is a work-queue pipeline: the library directories are scanned once, each missing
+ * module is passed to the transporter as soon as it is seen, and the descriptor of each module
+ * delivered by the transporter is read once to queue its unseen requires right away, while other
+ * transports are still running. The duration of a resolution thus depends on the depth of the
+ * dependency graph, not on the number of modules times the number of rounds. The first failed
+ * transport ends the resolution: no further transport is started and all pending ones are awaited,
+ * so that no transport is still writing into a library directory when the failure is rethrown.
+ */
 public class Resolver {
 
   private final Path[] paths;
   private final Set<String> declared;
-  private final Consumer<Set<String>> transporter;
+  private final Function<String, CompletableFuture<Path>> transporter;
   private final Set<String> system;
 
-  public Resolver(List<Path> paths, Set<String> declared, Consumer<Set<String>> transporter) {
+  /**
+   * Create a resolver.
+   *
+   * @param paths The library directories
+   * @param declared The names of modules declared by the project
+   * @param transporter The function that asynchronously delivers a module by its name
+   */
+  public Resolver(
+      List<Path> paths,
+      Set<String> declared,
+      Function<String, CompletableFuture<Path>> transporter) {
     this.paths = Objects.requireNonNull(paths, "paths").toArray(Path[]::new);
     this.declared = new TreeSet<>(Objects.requireNonNull(declared, "declared"));
     this.transporter = Objects.requireNonNull(transporter, "transporter");
@@ -41,36 +66,86 @@ public class Resolver {
     if (paths.isEmpty()) throw new IllegalArgumentException("At least one path expected");
   }
 
+  /**
+   * Resolve all missing modules required by the given names and by modules in the library.
+   *
+   * @param required The names of the modules to resolve
+   * @throws IllegalStateException if a module could not be resolved
+   */
   public void resolve(Set<String> required) {
-    resolveModules(required);
-    resolveLibraryModules();
+    var seen = ConcurrentHashMap.<String>newKeySet();
+    seen.addAll(declared);
+    seen.addAll(system);
+    var library = ModuleFinder.of(paths).findAll();
+    var pending = new TreeSet<>(required);
+    for (var reference : library) {
+      var descriptor = reference.descriptor();
+      seen.add(descriptor.name());
+      pending.addAll(Modules.required(descriptor));
+    }
+    var resolution = new Resolution(seen);
+    var futures = pending.stream().filter(seen::add).map(name -> transport(name, resolution));
+    var all = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    try {
+      CompletableFuture.anyOf(all, resolution.failure).join();
+    } catch (CompletionException exception) {
+      resolution.awaitDeliveries();
+      Throwable cause = exception;
+      while (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw exception;
+    }
   }
 
-  public void resolveModules(Set<String> required) {
-    var missing = missing(required);
-    if (missing.isEmpty()) return;
-    transporter.accept(missing);
-    var unresolved = missing(required);
-    if (unresolved.isEmpty()) return;
-    throw new IllegalStateException("Unresolved modules: " + unresolved);
+  private CompletableFuture<Void> transport(String module, Resolution resolution) {
+    CompletableFuture<Path> delivery;
+    try {
+      delivery = transporter.apply(module);
+    } catch (RuntimeException exception) {
+      delivery = CompletableFuture.failedFuture(exception);
+    }
+    resolution.deliveries.add(delivery);
+    var future =
+        delivery.thenCompose(
+            file -> {
+              var reference = ModuleFinder.of(file).find(module);
+              var message = "Unresolved module: " + module;
+              if (reference.isEmpty()) throw new IllegalStateException(message);
+              if (resolution.failure.isDone()) return CompletableFuture.completedFuture(null);
+              var requires = Modules.required(reference.get().descriptor()).stream();
+              var seen = resolution.seen;
+              var futures = requires.filter(seen::add).map(name -> transport(name, resolution));
+              return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+            });
+    future.whenComplete(
+        (result, throwable) -> {
+          if (throwable != null) resolution.failure.completeExceptionally(throwable);
+        });
+    return future;
   }
 
-  public void resolveLibraryModules() {
-    do {
-      var missing = missing(Modules.required(ModuleFinder.of(paths)));
-      if (missing.isEmpty()) return;
-      resolveModules(missing);
-    } while (true);
-  }
+  /** The state of a single resolution. */
+  private static final class Resolution {
+    private final Set<String> seen;
+    private final CompletableFuture<Void> failure = new CompletableFuture<>();
+    private final List<CompletableFuture<Path>> deliveries = new CopyOnWriteArrayList<>();
+
+    private Resolution(Set<String> seen) {
+      this.seen = seen;
+    }
 
-  Set<String> missing(Set<String> required) {
-    var missing = new TreeSet<>(required);
-    missing.removeAll(declared);
-    if (required.isEmpty()) return Set.of();
-    missing.removeAll(system);
-    if (required.isEmpty()) return Set.of();
-    var library = Modules.declared(ModuleFinder.of(paths));
-    missing.removeAll(library);
-    return missing;
+    /** Wait for all started deliveries to complete, including ones started while waiting. */
+    private void awaitDeliveries() {
+      for (int i = 0; i < deliveries.size(); i++) {
+        try {
+          deliveries.get(i).join();
+        } catch (CancellationException | CompletionException exception) {
+          // outcome of a pending delivery is irrelevant, the resolution failed already
+        }
+      }
+    }
   }
 }
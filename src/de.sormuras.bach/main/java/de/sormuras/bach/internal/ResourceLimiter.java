@@ -0,0 +1,115 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bound the number of concurrently running tools and the memory they are expected to use.
+ *
+ * <p>Acquiring a lease blocks until a global permit, a permit of the tool, and the memory the tool
+ * is expected to use are available. Blocking threads of a fork-join pool are reported to the pool
+ * via {@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)}.
+ */
+public final class ResourceLimiter {
+
+  private static final long MIB = 1024 * 1024;
+
+  private final Semaphore global;
+  private final Map<String, Integer> permits;
+  private final Map<String, Semaphore> tools = new ConcurrentHashMap<>();
+  private final Semaphore memory;
+  private final int budget;
+  private final Map<String, Long> demands;
+
+  /**
+   * Create a resource limiter.
+   *
+   * @param parallelism The maximum number of tools running at the same time
+   * @param permits The maximum numbers of concurrent runs per tool name
+   * @param memory The memory budget in bytes shared by all running tools
+   * @param demands The memory in bytes a run of a tool is expected to use, per tool name
+   */
+  public ResourceLimiter(
+      int parallelism, Map<String, Integer> permits, long memory, Map<String, Long> demands) {
+    this.global = new Semaphore(Math.max(1, parallelism), true);
+    this.permits = Map.copyOf(permits);
+    this.budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memory / MIB));
+    this.memory = new Semaphore(budget, true);
+    this.demands = Map.copyOf(demands);
+  }
+
+  /** Block until all resources needed to run the named tool are available. */
+  public Lease acquire(String tool) throws InterruptedException {
+    var limit = permits.get(tool);
+    var semaphore = limit == null ? null : tools.computeIfAbsent(tool, __ -> new Semaphore(limit));
+    var megabytes = (int) Math.min(budget, demands.getOrDefault(tool, 0L) / MIB);
+    var lease = new Lease(semaphore, megabytes);
+    ForkJoinPool.managedBlock(lease);
+    return lease;
+  }
+
+  /** Resources acquired for running a tool, to be released by closing this lease. */
+  public final class Lease implements ForkJoinPool.ManagedBlocker, AutoCloseable {
+
+    private final Semaphore tool;
+    private final int megabytes;
+    private boolean acquired = false;
+
+    private Lease(Semaphore tool, int megabytes) {
+      this.tool = tool;
+      this.megabytes = megabytes;
+    }
+
+    @Override
+    public boolean block() throws InterruptedException {
+      if (tool != null) tool.acquire();
+      try {
+        global.acquire();
+        try {
+          memory.acquire(megabytes);
+        } catch (InterruptedException exception) {
+          global.release();
+          throw exception;
+        }
+      } catch (InterruptedException exception) {
+        if (tool != null) tool.release();
+        throw exception;
+      }
+      acquired = true;
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return acquired;
+    }
+
+    @Override
+    public void close() {
+      if (!acquired) return;
+      acquired = false;
+      memory.release(megabytes);
+      global.release();
+      if (tool != null) tool.release();
+    }
+  }
+}
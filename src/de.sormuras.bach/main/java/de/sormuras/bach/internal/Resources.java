@@ -17,11 +17,15 @@
 
 package de.sormuras.bach.internal;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.CopyOption;
@@ -29,15 +33,35 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
-/** Uniform Resource Identifier ({@link URI}) head, read, and copy support. */
+/**
+ * Uniform Resource Identifier ({@link URI}) head, read, and copy support.
+ *
+ * <p>Content is copied into a temporary file next to the target file, which is moved into place
+ * after the copy completed. An existing target file is thus replaced and never written into: it
+ * may be a hard link to content shared with other files, like those of a {@link ModuleRepository}.
+ */
 public class Resources {
 
+  /** The message digest algorithm that is always computed and marked when copying verified. */
+  public static final String MARKED_ALGORITHM = "SHA-256";
+
   private final HttpClient client;
 
   public Resources(HttpClient client) {
@@ -59,32 +83,201 @@ public class Resources {
 
   /** Copy all content from a uri to a target file. */
   public Path copy(URI uri, Path file, CopyOption... options) throws Exception {
+    var request = newCopyRequest(uri, file);
+    var temporary = newTemporaryFile(file);
+    try {
+      var response = client.send(request, BodyHandlers.ofFile(temporary));
+      return copied(uri, file, response, __ -> {}, options);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /** Copy all content and attributes from a uri to a target file asynchronously. */
+  public CompletableFuture<Path> copyAsync(URI uri, Path file) {
+    return copyAsync(uri, file, StandardCopyOption.COPY_ATTRIBUTES);
+  }
+
+  /**
+   * Copy all content from a uri to a target file asynchronously.
+   *
+   * <p>No thread is blocked while the request is in flight: the response body is streamed into the
+   * file and post-processed by the executor of the underlying HTTP client.
+   */
+  public CompletableFuture<Path> copyAsync(URI uri, Path file, CopyOption... options) {
+    HttpRequest request;
+    Path temporary;
+    try {
+      request = newCopyRequest(uri, file);
+      temporary = newTemporaryFile(file);
+    } catch (IOException exception) {
+      return CompletableFuture.failedFuture(exception);
+    }
+    return client
+        .sendAsync(request, BodyHandlers.ofFile(temporary))
+        .thenApply(
+            response -> {
+              try {
+                return copied(uri, file, response, __ -> {}, options);
+              } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+              }
+            })
+        .whenComplete((path, throwable) -> deleteTemporaryFile(temporary, throwable));
+  }
+
+  /**
+   * Copy all content and attributes from a uri to a target file asynchronously and verify them.
+   *
+   * <p>The size and all message digests of the content are computed in a single pass while the
+   * response body is streamed into the file. The download is aborted as soon as more bytes than
+   * expected are received. A {@value #MARKED_ALGORITHM} digest is always computed and marked as
+   * verified on the file, letting later builds {@linkplain #findVerifiedDigest find} it without
+   * reading the file again.
+   *
+   * @param uri The uri to copy content from
+   * @param file The target file to copy content to
+   * @param size The expected size in bytes, or {@code -1} if not known
+   * @param digests The expected message digests in hexadecimal form mapped by algorithm names
+   * @return A future that completes with the verified file
+   */
+  public CompletableFuture<Path> copyAsync(
+      URI uri, Path file, long size, Map<String, String> digests) {
+    HttpRequest request;
+    Path temporary;
+    try {
+      request = newCopyRequest(uri, file);
+      temporary = newTemporaryFile(file);
+    } catch (IOException exception) {
+      return CompletableFuture.failedFuture(exception);
+    }
+    var computed = new ConcurrentHashMap<String, String>();
+    HttpResponse.BodyHandler<Path> handler =
+        info -> {
+          var subscriber = BodySubscribers.ofFile(temporary);
+          if (info.statusCode() != 200) return subscriber;
+          return new VerifyingBodySubscriber(uri, subscriber, size, digests, computed);
+        };
+    return client
+        .sendAsync(request, handler)
+        .thenApply(
+            response -> {
+              try {
+                var digest = computed.get(MARKED_ALGORITHM);
+                var attributes = StandardCopyOption.COPY_ATTRIBUTES;
+                return copied(uri, file, response, copy -> mark(copy, digest), attributes);
+              } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+              }
+            })
+        .whenComplete((path, throwable) -> deleteTemporaryFile(temporary, throwable));
+  }
+
+  private static void mark(Path file, String digest) {
+    if (digest != null) markVerifiedDigest(file, MARKED_ALGORITHM, digest);
+  }
+
+  /**
+   * Return the digest that was verified while the given file was copied.
+   *
+   * @param file The file to inspect
+   * @param algorithm The name of the message digest algorithm
+   * @return The digest in hexadecimal form, or an empty optional if the file is not marked or was
+   *     changed after it was marked
+   */
+  public static Optional<String> findVerifiedDigest(Path file, String algorithm) {
+    if (Files.notExists(file) || !Paths.isViewSupported(file, "user")) return Optional.empty();
+    try {
+      // mark format: "<size> <last modified time in milliseconds> <digest>"
+      var bytes = (byte[]) Files.getAttribute(file, "user:digest-" + algorithm);
+      var split = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes)).toString().split(" ");
+      if (Long.parseLong(split[0]) != Files.size(file)) return Optional.empty();
+      if (Long.parseLong(split[1]) != Files.getLastModifiedTime(file).toMillis()) {
+        return Optional.empty();
+      }
+      return Optional.of(split[2]);
+    } catch (Exception e) {
+      return Optional.empty();
+    }
+  }
+
+  private static void markVerifiedDigest(Path file, String algorithm, String digest) {
+    if (!Paths.isViewSupported(file, "user")) return;
+    try {
+      var time = Files.getLastModifiedTime(file).toMillis();
+      var mark = Files.size(file) + " " + time + " " + digest;
+      Files.setAttribute(file, "user:digest-" + algorithm, StandardCharsets.UTF_8.encode(mark));
+    } catch (Exception e) {
+      // a missing mark only costs reading the file again
+    }
+  }
+
+  private static HttpRequest newCopyRequest(URI uri, Path file) throws IOException {
     var request = HttpRequest.newBuilder(uri).GET();
     if (Files.exists(file) && Paths.isViewSupported(file, "user")) {
-      var etagBytes = (byte[]) Files.getAttribute(file, "user:etag");
-      var etag = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(etagBytes)).toString();
-      request.setHeader("If-None-Match", etag);
+      try {
+        var etagBytes = (byte[]) Files.getAttribute(file, "user:etag");
+        var etag = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(etagBytes)).toString();
+        request.setHeader("If-None-Match", etag);
+      } catch (IOException exception) {
+        // no etag recorded, request the content unconditionally
+      }
     }
     var directory = file.getParent();
     if (directory != null) Files.createDirectories(directory);
-    var handler = BodyHandlers.ofFile(file);
-    var response = client.send(request.build(), handler);
+    return request.build();
+  }
+
+  /** Create an empty temporary file in the directory of the given file. */
+  private static Path newTemporaryFile(Path file) throws IOException {
+    var directory = file.toAbsolutePath().getParent();
+    return Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+  }
+
+  /** Delete the temporary file, which was moved into place unless the copy failed. */
+  private static void deleteTemporaryFile(Path temporary, Throwable throwable) {
+    try {
+      Files.deleteIfExists(temporary);
+    } catch (IOException exception) {
+      if (throwable != null) throwable.addSuppressed(exception);
+    }
+  }
+
+  /**
+   * Move the copied content into place, unless the response reports it as not modified.
+   *
+   * @param uri The uri that was requested
+   * @param file The target file
+   * @param response The response whose body is a temporary copy of the content
+   * @param finisher The action applied to the temporary copy after its attributes were set
+   * @param options The options of the copy
+   * @return The target file
+   */
+  private static Path copied(
+      URI uri,
+      Path file,
+      HttpResponse<Path> response,
+      Consumer<Path> finisher,
+      CopyOption... options)
+      throws IOException {
     if (response.statusCode() == 200) {
+      var copy = response.body();
       if (Set.of(options).contains(StandardCopyOption.COPY_ATTRIBUTES)) {
         var etagHeader = response.headers().firstValue("etag");
-        if (etagHeader.isPresent() && Paths.isViewSupported(file, "user")) {
+        if (etagHeader.isPresent() && Paths.isViewSupported(copy, "user")) {
           var etag = StandardCharsets.UTF_8.encode(etagHeader.get());
-          Files.setAttribute(file, "user:etag", etag);
+          Files.setAttribute(copy, "user:etag", etag);
         }
         var lastModifiedHeader = response.headers().firstValue("last-modified");
         if (lastModifiedHeader.isPresent()) {
           var text = lastModifiedHeader.get(); // force " GMT" suffix
           if (!text.endsWith(" GMT")) text = text.substring(0, text.lastIndexOf(' ')) + " GMT";
           var time = ZonedDateTime.parse(text, DateTimeFormatter.RFC_1123_DATE_TIME);
-          Files.setLastModifiedTime(file, FileTime.from(Instant.from(time)));
+          Files.setLastModifiedTime(copy, FileTime.from(Instant.from(time)));
         }
       }
-      return file;
+      finisher.accept(copy);
+      return Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING);
     }
     if (response.statusCode() == 304 /*Not Modified*/) return file;
     Files.deleteIfExists(file);
@@ -96,4 +289,106 @@ public class Resources {
     var request = HttpRequest.newBuilder(uri).GET();
     return client.send(request.build(), BodyHandlers.ofString()).body();
   }
+
+  /** A body subscriber that counts and digests all bytes passed on to another subscriber. */
+  private static final class VerifyingBodySubscriber implements BodySubscriber<Path> {
+
+    private final URI uri;
+    private final BodySubscriber<Path> delegate;
+    private final long size;
+    private final Map<String, String> expected;
+    private final Map<String, String> computed;
+    private final Map<String, MessageDigest> digests;
+    private Flow.Subscription subscription;
+    private long count;
+    private boolean failed;
+
+    VerifyingBodySubscriber(
+        URI uri,
+        BodySubscriber<Path> delegate,
+        long size,
+        Map<String, String> expected,
+        Map<String, String> computed) {
+      this.uri = uri;
+      this.delegate = delegate;
+      this.size = size;
+      this.expected = expected;
+      this.computed = computed;
+      this.digests = new TreeMap<>();
+      try {
+        for (var algorithm : expected.keySet()) {
+          digests.put(algorithm, MessageDigest.getInstance(algorithm));
+        }
+        digests.putIfAbsent(MARKED_ALGORITHM, MessageDigest.getInstance(MARKED_ALGORITHM));
+      } catch (NoSuchAlgorithmException exception) {
+        throw new IllegalArgumentException("Unsupported digest of " + uri, exception);
+      }
+      this.count = 0;
+      this.failed = false;
+    }
+
+    @Override
+    public CompletionStage<Path> getBody() {
+      return delegate.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      delegate.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+      if (failed) return;
+      for (var buffer : buffers) {
+        count += buffer.remaining();
+        for (var digest : digests.values()) digest.update(buffer.duplicate());
+      }
+      if (size >= 0 && count > size) {
+        fail("Size of " + uri + " exceeds expected " + size + " bytes");
+        return;
+      }
+      delegate.onNext(buffers);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      if (failed) return;
+      failed = true;
+      delegate.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      if (failed) return;
+      if (size >= 0 && count != size) {
+        fail("Size of " + uri + " mismatch: expected " + size + ", but got " + count + " bytes");
+        return;
+      }
+      for (var entry : digests.entrySet()) {
+        var algorithm = entry.getKey();
+        var actual = hex(entry.getValue().digest());
+        computed.put(algorithm, actual);
+        var digest = expected.get(algorithm);
+        if (digest == null || digest.equalsIgnoreCase(actual)) continue;
+        var details = "expected " + digest + ", but got " + actual;
+        fail("Digest " + algorithm + " of " + uri + " mismatch: " + details);
+        return;
+      }
+      delegate.onComplete();
+    }
+
+    private void fail(String message) {
+      failed = true;
+      subscription.cancel();
+      delegate.onError(new IllegalStateException(message));
+    }
+
+    private static String hex(byte[] bytes) {
+      var hex = new StringBuilder();
+      for (var b : bytes) hex.append(String.format("%02x", b));
+      return hex.toString();
+    }
+  }
 }
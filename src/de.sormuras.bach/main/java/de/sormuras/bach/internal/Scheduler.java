@@ -0,0 +1,149 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Execute named tasks of a directed acyclic graph as soon as all their dependencies completed. */
+public final class Scheduler {
+
+  private final Map<String, Task> tasks = new LinkedHashMap<>();
+
+  /**
+   * Add a named task that depends on previously added tasks.
+   *
+   * <p>Requiring dependencies to be added first keeps the graph free of cycles and the insertion
+   * order a valid topological order.
+   *
+   * @param name The unique name of the task
+   * @param runnable The work to do
+   * @param dependencies Names of tasks that have to complete normally before this task starts
+   * @return This scheduler instance
+   */
+  public Scheduler add(String name, Runnable runnable, String... dependencies) {
+    return add(name, runnable, List.of(dependencies));
+  }
+
+  /** Add a named task that depends on previously added tasks. */
+  public Scheduler add(String name, Runnable runnable, Iterable<String> dependencies) {
+    if (tasks.containsKey(name)) throw new IllegalArgumentException("Duplicate task: " + name);
+    var names = new ArrayList<String>();
+    for (var dependency : dependencies) {
+      if (tasks.containsKey(dependency)) {
+        names.add(dependency);
+        continue;
+      }
+      throw new IllegalArgumentException("Task " + name + " depends on unknown: " + dependency);
+    }
+    tasks.put(name, new Task(name, runnable, List.copyOf(names)));
+    return this;
+  }
+
+  /** Return {@code true} if a task with the given name was added to this scheduler. */
+  public boolean contains(String name) {
+    return tasks.containsKey(name);
+  }
+
+  /** Return the names of all tasks in insertion order. */
+  public Set<String> names() {
+    return tasks.keySet();
+  }
+
+  /**
+   * Run all tasks on a fixed thread pool and wait for their completion.
+   *
+   * @param parallelism The maximum number of tasks running at the same time
+   * @see #run(Executor)
+   */
+  public void run(int parallelism) {
+    var executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tasks.size())));
+    try {
+      run(executor);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Run all tasks on the given executor and wait for their completion.
+   *
+   * <p>A task is started as soon as all of its dependencies completed normally. Once a task failed,
+   * no other task is started and the first failure is re-thrown after all running tasks finished.
+   * A failure is preferred over cancellations of other tasks, even if they were reported earlier.
+   *
+   * @param executor The executor used to run ready tasks
+   */
+  public void run(Executor executor) {
+    var failure = new AtomicReference<Throwable>();
+    var futures = new LinkedHashMap<String, CompletableFuture<Void>>();
+    for (var task : tasks.values()) {
+      var dependencies = task.dependencies.stream().map(futures::get);
+      var ready = CompletableFuture.allOf(dependencies.toArray(CompletableFuture[]::new));
+      futures.put(task.name, ready.thenRunAsync(() -> task.run(failure), executor));
+    }
+    try {
+      CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException | CancellationException exception) {
+      var cause = failure.get();
+      if (cause == null) cause = exception.getCause() != null ? exception.getCause() : exception;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new RuntimeException("Task failed: " + cause, cause);
+    }
+  }
+
+  /** A named unit of work. */
+  private static final class Task {
+    private final String name;
+    private final Runnable runnable;
+    private final List<String> dependencies;
+
+    private Task(String name, Runnable runnable, List<String> dependencies) {
+      this.name = name;
+      this.runnable = runnable;
+      this.dependencies = dependencies;
+    }
+
+    private void run(AtomicReference<Throwable> failure) {
+      if (failure.get() != null) throw new CancellationException("Skip task: " + name);
+      try {
+        runnable.run();
+      } catch (Throwable throwable) {
+        // a cancellation caused by another task's failure must not hide that failure
+        failure.accumulateAndGet(throwable, Task::first);
+        throw throwable;
+      }
+    }
+
+    private static Throwable first(Throwable previous, Throwable next) {
+      if (previous == null) return next;
+      var cancelled = previous instanceof CancellationException;
+      return cancelled && !(next instanceof CancellationException) ? next : previous;
+    }
+  }
+}
@@ -36,6 +36,7 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 /** A scribe knows how to transcribe itself into Java code. */
 public interface Scribe {
@@ -165,7 +166,8 @@ public interface Scribe {
       depth++;
       module.version().ifPresent(v -> addNewLineAndContinue().addCall(".version", v));
       module.mainClass().ifPresent(c -> addNewLineAndContinue().addCall(".mainClass", c));
-      module.requires().forEach(r -> addNewLineAndContinue().addCall(".requires", r.name()));
+      var requires = new TreeSet<>(module.requires()); // stable order
+      requires.forEach(r -> addNewLineAndContinue().addCall(".requires", r.name()));
       addNewLineAndContinue().append(".build()");
       depth--;
       return this;
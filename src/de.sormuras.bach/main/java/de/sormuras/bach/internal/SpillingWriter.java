@@ -0,0 +1,175 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * A writer that streams lines to a consumer and keeps only a bounded head and tail of them.
+ *
+ * <p>As soon as more lines than the head and tail can hold are written, all lines are spilled to a
+ * file: the ones kept in memory first and every following one as it is written. Failing to spill
+ * lines is reported to the consumer once and doesn't affect the lines kept in memory.
+ */
+public final class SpillingWriter extends Writer {
+
+  private final Path file;
+  private final int limit;
+  private final Consumer<String> consumer;
+  private final StringBuilder line = new StringBuilder();
+  private final List<String> head = new ArrayList<>();
+  private final Deque<String> tail = new ArrayDeque<>();
+  private long count = 0;
+  private BufferedWriter spill = null;
+  private boolean failed = false;
+
+  /**
+   * Create a writer with bounded memory usage.
+   *
+   * @param file The file to spill all lines into, created on demand
+   * @param limit The number of lines kept in memory for both, the head and the tail
+   * @param consumer The consumer of each line written
+   */
+  public SpillingWriter(Path file, int limit, Consumer<String> consumer) {
+    this.file = file;
+    this.limit = limit;
+    this.consumer = consumer;
+  }
+
+  @Override
+  public synchronized void write(char[] buffer, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      var c = buffer[i];
+      if (c == '\n') {
+        emit(line.toString());
+        line.setLength(0);
+      } else if (c != '\r') line.append(c);
+    }
+  }
+
+  @Override
+  public synchronized void flush() {
+    if (spill == null) return;
+    try {
+      spill.flush();
+    } catch (IOException exception) {
+      fail(exception);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (line.length() > 0) {
+      emit(line.toString());
+      line.setLength(0);
+    }
+    if (spill == null) return;
+    try {
+      spill.close();
+    } catch (IOException exception) {
+      fail(exception);
+    }
+  }
+
+  /** Return the number of lines written. */
+  public synchronized long count() {
+    return count;
+  }
+
+  /** Return the path to the file holding all lines, if they were spilled. */
+  public synchronized Optional<Path> file() {
+    return spill == null ? Optional.empty() : Optional.of(file);
+  }
+
+  /** Return the head and the tail lines separated by a line pointing to the spill file. */
+  @Override
+  public synchronized String toString() {
+    var joiner = new StringJoiner("\n");
+    head.forEach(joiner::add);
+    var omitted = count - head.size() - tail.size();
+    if (omitted > 0) {
+      var where = spill == null ? "" : ", all lines in " + file;
+      joiner.add(String.format("[... %d lines omitted%s ...]", omitted, where));
+    }
+    tail.forEach(joiner::add);
+    return joiner.toString();
+  }
+
+  private void emit(String text) {
+    count++;
+    consumer.accept(text);
+    if (spill != null) {
+      try {
+        spill.write(text);
+        spill.newLine();
+      } catch (IOException exception) {
+        fail(exception);
+      }
+    }
+    if (head.size() < limit) {
+      head.add(text);
+      return;
+    }
+    tail.addLast(text);
+    if (tail.size() <= limit) return;
+    if (spill == null && !failed) spill();
+    tail.removeFirst();
+  }
+
+  private void spill() {
+    try {
+      Files.createDirectories(file.getParent());
+      spill = Files.newBufferedWriter(file);
+      for (var kept : head) {
+        spill.write(kept);
+        spill.newLine();
+      }
+      for (var kept : tail) {
+        spill.write(kept);
+        spill.newLine();
+      }
+    } catch (IOException exception) {
+      fail(exception);
+    }
+  }
+
+  private void fail(IOException exception) {
+    if (failed) return;
+    failed = true;
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException suppressed) {
+        exception.addSuppressed(suppressed);
+      }
+    }
+    spill = null;
+    consumer.accept("Spilling lines to " + file + " failed: " + exception);
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Test class fingerprints based on static class references.
+ *
+ * <p>A fingerprint of a top-level test class covers the content of all class files that are
+ * transitively referenced from the constant pool of the test class and its nested classes. Classes
+ * that are only loaded reflectively, for example via {@link java.util.ServiceLoader}, are not
+ * covered.
+ */
+public final class TestClasses {
+
+  /**
+   * Return the binary names of all top-level classes found in a test classes directory.
+   *
+   * @param classes The directory containing the class files of a test module
+   * @param directories Other class directories, usually of modules under test, which take
+   *     precedence over classes of the same name in the test module's directory
+   * @return A sorted set of binary names of top-level test classes
+   */
+  public static Set<String> list(Path classes, List<Path> directories) {
+    var names = new TreeSet<String>();
+    for (var name : scan(classes, directories, new HashMap<>())) names.add(name.replace('/', '.'));
+    return names;
+  }
+
+  /**
+   * Compute fingerprints of all top-level classes found in a test classes directory.
+   *
+   * @param classes The directory containing the class files of a test module
+   * @param directories Other class directories, usually of modules under test, which take
+   *     precedence over classes of the same name in the test module's directory
+   * @param common A string that is added to every fingerprint
+   * @return A sorted map of binary names of top-level classes to hexadecimal fingerprints
+   */
+  public static Map<String, String> fingerprints(
+      Path classes, List<Path> directories, String common) {
+    var index = new HashMap<String, Path>();
+    var tests = scan(classes, directories, index);
+    var graph = new Graph(index);
+    var fingerprints = new TreeMap<String, String>();
+    for (var name : tests) {
+      var fingerprint = new Fingerprint().add(common);
+      for (var reached : graph.closure(name)) fingerprint.add(reached).add(graph.hash(reached));
+      fingerprints.put(name.replace('/', '.'), fingerprint.toHexString());
+    }
+    return fingerprints;
+  }
+
+  /** Index all class files and return internal names of top-level test classes. */
+  private static Set<String> scan(Path classes, List<Path> directories, Map<String, Path> index) {
+    for (var directory : directories) {
+      if (!Files.isDirectory(directory)) continue;
+      for (var file : Paths.find(List.of(directory), 99, TestClasses::isClassFile)) {
+        index.putIfAbsent(internalName(directory, file), file);
+      }
+    }
+    var tests = new TreeSet<String>();
+    if (Files.notExists(classes)) return tests;
+    for (var file : Paths.find(List.of(classes), 99, TestClasses::isClassFile)) {
+      var name = internalName(classes, file);
+      // a patched module's classes directory also contains copies of classes under test
+      if (index.containsKey(name)) continue;
+      index.put(name, file);
+      if (name.indexOf('$') < 0) tests.add(name);
+    }
+    return tests;
+  }
+
+  /** Return internal names of all classes referenced by the given class file. */
+  static Set<String> references(byte[] bytes) {
+    try {
+      return new ModuleApi.Reader(bytes).references();
+    } catch (IOException exception) {
+      throw new UncheckedIOException("Parsing class file failed", exception);
+    }
+  }
+
+  /** Load fingerprints from a file with one {@code NAME FINGERPRINT} pair per line. */
+  public static Map<String, String> load(Path file) {
+    var map = new TreeMap<String, String>();
+    if (Files.notExists(file)) return map;
+    try {
+      for (var line : Files.readAllLines(file)) {
+        var pair = line.strip().split(" ", 2);
+        if (pair.length == 2) map.put(pair[0], pair[1]);
+      }
+    } catch (IOException exception) {
+      throw new UncheckedIOException("Read test class fingerprints failed: " + file, exception);
+    }
+    return map;
+  }
+
+  /** Store fingerprints in a file with one {@code NAME FINGERPRINT} pair per line. */
+  public static void store(Path file, Map<String, String> fingerprints) {
+    var lines = new ArrayList<String>();
+    fingerprints.forEach((name, fingerprint) -> lines.add(name + ' ' + fingerprint));
+    try {
+      Files.createDirectories(file.getParent());
+      Files.write(file, lines);
+    } catch (IOException exception) {
+      throw new UncheckedIOException("Write test class fingerprints failed: " + file, exception);
+    }
+  }
+
+  private static boolean isClassFile(Path path) {
+    var name = Paths.name(path);
+    if (!name.endsWith(".class")) return false;
+    if (name.equals("module-info.class") || name.equals("package-info.class")) return false;
+    return Files.isRegularFile(path);
+  }
+
+  private static String internalName(Path directory, Path file) {
+    var name = Paths.replaceBackslashes(directory.relativize(file));
+    return name.substring(0, name.length() - ".class".length());
+  }
+
+  /** A lazily parsed graph of class references. */
+  private static final class Graph {
+
+    private final Map<String, Path> index;
+    private final Map<String, Set<String>> references = new HashMap<>();
+    private final Map<String, String> hashes = new HashMap<>();
+
+    private Graph(Map<String, Path> index) {
+      this.index = index;
+    }
+
+    /** Return the given class and all known classes it transitively references. */
+    private Set<String> closure(String name) {
+      var closure = new TreeSet<String>();
+      var pending = new ArrayDeque<String>();
+      pending.add(name);
+      while (!pending.isEmpty()) {
+        var next = pending.pop();
+        if (!index.containsKey(next) || !closure.add(next)) continue;
+        pending.addAll(references(next));
+      }
+      return closure;
+    }
+
+    private String hash(String name) {
+      var file = index.get(name);
+      return hashes.computeIfAbsent(name, key -> new Fingerprint().addContent(file).toHexString());
+    }
+
+    private Set<String> references(String name) {
+      return references.computeIfAbsent(name, key -> TestClasses.references(read(index.get(key))));
+    }
+
+    private static byte[] read(Path file) {
+      try {
+        return Files.readAllBytes(file);
+      } catch (IOException exception) {
+        throw new UncheckedIOException("Read class file failed: " + file, exception);
+      }
+    }
+  }
+
+  private TestClasses() {}
+}
@@ -0,0 +1,142 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A quarantine of flaky tests, i.e. tests that failed and passed again when they were retried.
+ *
+ * <p>Tests are identified by selectors: a {@code CLASS#METHOD} name for a test method without
+ * parameters and the binary name of its class for all other tests, like parameterized or dynamic
+ * ones. Both forms are understood by the {@code --select-method} and {@code --select-class} options
+ * of the JUnit Platform console launcher.
+ */
+public final class TestQuarantine {
+
+  /** Load numbers of flips from a file with one {@code SELECTOR FLIPS} pair per line. */
+  public static Map<String, Integer> load(Path file) {
+    var flips = new TreeMap<String, Integer>();
+    if (Files.notExists(file)) return flips;
+    try {
+      for (var line : Files.readAllLines(file)) {
+        var pair = line.strip().split(" ", 2);
+        if (pair.length != 2) continue;
+        try {
+          flips.put(pair[0], Integer.parseInt(pair[1]));
+        } catch (NumberFormatException exception) {
+          // ignore malformed line
+        }
+      }
+    } catch (IOException exception) {
+      throw new UncheckedIOException("Read quarantine failed: " + file, exception);
+    }
+    return flips;
+  }
+
+  /** Store numbers of flips in a file with one {@code SELECTOR FLIPS} pair per line. */
+  public static void store(Path file, Map<String, Integer> flips) {
+    var lines = new ArrayList<String>();
+    new TreeMap<>(flips).forEach((selector, count) -> lines.add(selector + ' ' + count));
+    try {
+      Files.createDirectories(file.getParent());
+      Files.write(file, lines);
+    } catch (IOException exception) {
+      throw new UncheckedIOException("Write quarantine failed: " + file, exception);
+    }
+  }
+
+  /**
+   * Decrement numbers of flips of quarantined tests that passed and release tests without flips.
+   *
+   * <p>A test that flipped {@code N} times has to pass {@code N} times when first launched before
+   * it leaves the quarantine.
+   *
+   * @param flips The mutable map of test selectors to numbers of flips
+   * @param outcomes The outcomes of tests, as read from JUnit reports of their first launch
+   * @return The selectors of tests released from quarantine
+   */
+  public static Set<String> decay(Map<String, Integer> flips, Map<String, Boolean> outcomes) {
+    var released = new TreeSet<String>();
+    for (var selector : new ArrayList<>(flips.keySet())) {
+      if (!outcomes.getOrDefault(selector, false)) continue;
+      var left = flips.merge(selector, -1, Integer::sum);
+      if (left > 0) continue;
+      flips.remove(selector);
+      released.add(selector);
+    }
+    return released;
+  }
+
+  private static final Pattern TEST_CASE =
+      Pattern.compile("<testcase\\s([^>]*?)(?:/>|>(.*?)</testcase>)", Pattern.DOTALL);
+  private static final Pattern CLASS_NAME = Pattern.compile("(?:^|\\s)classname=\"([^\"]+)\"");
+  private static final Pattern NAME = Pattern.compile("(?:^|\\s)name=\"([^\"]*)\"");
+  private static final Pattern FAILED = Pattern.compile("<(?:failure|error)[\\s>/]");
+  private static final Pattern METHOD =
+      Pattern.compile("(\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)\\(\\)");
+
+  /**
+   * Read outcomes of tests from JUnit XML reports.
+   *
+   * <p>A selector of a class stands for all of its tests that can't be selected as methods: it
+   * passed only if all of them passed.
+   *
+   * @param directory The directory containing {@code TEST-*.xml} report files
+   * @return A map of test selectors to {@code true} for passed and {@code false} for failed tests
+   */
+  public static Map<String, Boolean> readOutcomes(Path directory) {
+    var outcomes = new TreeMap<String, Boolean>();
+    if (!Files.isDirectory(directory)) return outcomes;
+    for (var file : Paths.list(directory, TestQuarantine::isJUnitReport)) {
+      try {
+        var matcher = TEST_CASE.matcher(Files.readString(file));
+        while (matcher.find()) {
+          var attributes = matcher.group(1);
+          var type = CLASS_NAME.matcher(attributes);
+          if (!type.find()) continue;
+          var name = NAME.matcher(attributes);
+          var method = METHOD.matcher(name.find() ? name.group(1) : "");
+          var selector = method.matches() ? type.group(1) + '#' + method.group(1) : type.group(1);
+          var body = matcher.group(2);
+          var passed = body == null || !FAILED.matcher(body).find();
+          outcomes.merge(selector, passed, Boolean::logicalAnd);
+        }
+      } catch (IOException exception) {
+        throw new UncheckedIOException("Read JUnit report failed: " + file, exception);
+      }
+    }
+    return outcomes;
+  }
+
+  private static boolean isJUnitReport(Path path) {
+    var name = Paths.name(path);
+    return name.startsWith("TEST-") && name.endsWith(".xml") && Files.isRegularFile(path);
+  }
+
+  private TestQuarantine() {}
+}
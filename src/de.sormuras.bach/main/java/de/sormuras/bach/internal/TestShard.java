@@ -0,0 +1,189 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A shard of test items, balanced by historical durations.
+ *
+ * <p>All test items are assigned to shards by the longest-processing-time-first rule: items are
+ * sorted by descending duration and each is assigned to the shard with the least total duration so
+ * far. Items without a recorded duration are assumed to take the average recorded duration. Ties
+ * are broken by name and shard index, so that every shard computes the same assignment given the
+ * same items and history.
+ */
+public final class TestShard {
+
+  /** Return the shard specified by the {@code bach.test.shard} system property, if present. */
+  public static Optional<TestShard> ofSystem() {
+    var shard = System.getProperty("bach.test.shard", "");
+    return shard.isBlank() ? Optional.empty() : Optional.of(of(shard));
+  }
+
+  /** Parse a shard specification in the form of {@code INDEX/COUNT}, for example {@code 2/3}. */
+  public static TestShard of(String specification) {
+    var split = specification.strip().split("/");
+    try {
+      if (split.length != 2) throw new NumberFormatException("Expected INDEX/COUNT");
+      var index = Integer.parseInt(split[0].strip());
+      var count = Integer.parseInt(split[1].strip());
+      if (count < 1 || index < 1 || index > count) throw new NumberFormatException("Out of range");
+      return new TestShard(index, count);
+    } catch (NumberFormatException exception) {
+      var message = "Invalid shard, expected INDEX/COUNT with 1 <= INDEX <= COUNT: ";
+      throw new IllegalArgumentException(message + specification, exception);
+    }
+  }
+
+  private final int index;
+  private final int count;
+
+  public TestShard(int index, int count) {
+    this.index = index;
+    this.count = count;
+  }
+
+  public int index() {
+    return index;
+  }
+
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Return the items assigned to this shard.
+   *
+   * @param items The names of all test items
+   * @param durations Recorded durations in milliseconds, keyed by item name
+   * @return A sorted set of items assigned to this shard
+   */
+  public Set<String> select(Set<String> items, Map<String, Long> durations) {
+    return assign(items, durations, count).get(index - 1);
+  }
+
+  /** Assign items to the given number of shards by the longest-processing-time-first rule. */
+  static List<Set<String>> assign(Set<String> items, Map<String, Long> durations, int count) {
+    var known = items.stream().filter(durations::containsKey).mapToLong(durations::get);
+    var average = (long) known.average().orElse(1000);
+    var estimates = new TreeMap<String, Long>();
+    for (var item : items) estimates.put(item, durations.getOrDefault(item, average));
+    var sorted = new ArrayList<>(estimates.keySet());
+    Comparator<String> longestFirst = Comparator.comparing(estimates::get);
+    sorted.sort(longestFirst.reversed().thenComparing(Comparator.naturalOrder()));
+    var shards = new ArrayList<Set<String>>();
+    for (int shard = 0; shard < count; shard++) shards.add(new TreeSet<>());
+    var totals = new long[count];
+    for (var item : sorted) {
+      var least = 0;
+      for (int shard = 1; shard < count; shard++) if (totals[shard] < totals[least]) least = shard;
+      shards.get(least).add(item);
+      totals[least] += estimates.get(item);
+    }
+    return shards;
+  }
+
+  @Override
+  public String toString() {
+    return index + "/" + count;
+  }
+
+  /** Load durations from a file with one {@code NAME MILLIS} pair per line. */
+  public static Map<String, Long> loadDurations(Path file) {
+    var durations = new TreeMap<String, Long>();
+    if (Files.notExists(file)) return durations;
+    try {
+      for (var line : Files.readAllLines(file)) {
+        var pair = line.strip().split(" ", 2);
+        if (pair.length != 2) continue;
+        try {
+          durations.put(pair[0], Long.parseLong(pair[1]));
+        } catch (NumberFormatException exception) {
+          // ignore malformed line
+        }
+      }
+    } catch (IOException exception) {
+      throw new UncheckedIOException("Read durations failed: " + file, exception);
+    }
+    return durations;
+  }
+
+  /** Store durations in a file with one {@code NAME MILLIS} pair per line. */
+  public static void storeDurations(Path file, Map<String, Long> durations) {
+    var lines = new ArrayList<String>();
+    new TreeMap<>(durations).forEach((name, millis) -> lines.add(name + ' ' + millis));
+    try {
+      Files.createDirectories(file.getParent());
+      Files.write(file, lines);
+    } catch (IOException exception) {
+      throw new UncheckedIOException("Write durations failed: " + file, exception);
+    }
+  }
+
+  private static final Pattern TEST_CASE = Pattern.compile("<testcase\\s[^>]*>");
+  private static final Pattern CLASS_NAME = Pattern.compile("\\sclassname=\"([^\"]+)\"");
+  private static final Pattern TIME = Pattern.compile("\\stime=\"([0-9.]+)\"");
+
+  /**
+   * Read durations of top-level test classes from JUnit XML reports.
+   *
+   * @param directory The directory containing {@code TEST-*.xml} report files
+   * @return A map of binary names of top-level classes to total durations in milliseconds
+   */
+  public static Map<String, Long> readJUnitReports(Path directory) {
+    var durations = new TreeMap<String, Long>();
+    if (!Files.isDirectory(directory)) return durations;
+    for (var file : Paths.list(directory, TestShard::isJUnitReport)) {
+      try {
+        var matcher = TEST_CASE.matcher(Files.readString(file));
+        while (matcher.find()) {
+          var element = matcher.group();
+          var name = CLASS_NAME.matcher(element);
+          var time = TIME.matcher(element);
+          if (!name.find() || !time.find()) continue;
+          var type = name.group(1);
+          var nested = type.indexOf('$');
+          var topLevel = nested < 0 ? type : type.substring(0, nested);
+          var millis = Math.round(Double.parseDouble(time.group(1)) * 1000);
+          durations.merge(topLevel, millis, Long::sum);
+        }
+      } catch (IOException | NumberFormatException exception) {
+        throw new IllegalStateException("Read JUnit report failed: " + file, exception);
+      }
+    }
+    return durations;
+  }
+
+  private static boolean isJUnitReport(Path path) {
+    var name = Paths.name(path);
+    return name.startsWith("TEST-") && name.endsWith(".xml") && Files.isRegularFile(path);
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A worker process that runs test tools in fresh module layers on behalf of a build process.
+ *
+ * <p>Requests are read from the standard input stream. Lines printed by a tool are streamed back
+ * as messages on the standard output stream, followed by the exit code of the tool. Lines printed
+ * to {@link System#out} and {@link System#err} are streamed back as well.
+ *
+ * @see TestWorkerPool
+ */
+public final class TestWorker {
+
+  static final byte OUT = 'O';
+  static final byte ERR = 'E';
+  static final byte EXIT = 'X';
+
+  public static void main(String... args) throws IOException {
+    var channel = new Channel(new FileOutputStream(FileDescriptor.out));
+    System.setOut(new PrintStream(new Forwarder(channel, OUT), true, StandardCharsets.UTF_8));
+    System.setErr(new PrintStream(new Forwarder(channel, ERR), true, StandardCharsets.UTF_8));
+    serve(System.in, channel);
+  }
+
+  /** Serve requests until the input stream is closed. */
+  static void serve(InputStream stream, Channel channel) throws IOException {
+    var in = new DataInputStream(new BufferedInputStream(stream));
+    while (true) {
+      String name;
+      try {
+        name = readString(in);
+      } catch (EOFException exception) {
+        return;
+      }
+      var module = readString(in);
+      var modulePaths = new ArrayList<Path>();
+      for (int i = in.readInt(); i > 0; i--) modulePaths.add(Path.of(readString(in)));
+      var args = new String[in.readInt()];
+      for (int i = 0; i < args.length; i++) args[i] = readString(in);
+      channel.exit(run(channel, name, module, modulePaths, args));
+    }
+  }
+
+  private static int run(
+      Channel channel, String name, String module, List<Path> modulePaths, String... args) {
+    var normal = new Forwarder(channel, OUT);
+    var errors = new Forwarder(channel, ERR);
+    var out = new PrintWriter(new OutputStreamWriter(normal, StandardCharsets.UTF_8), true);
+    var err = new PrintWriter(new OutputStreamWriter(errors, StandardCharsets.UTF_8), true);
+    var thread = Thread.currentThread();
+    var loader = thread.getContextClassLoader();
+    try {
+      var tools = Modules.findTools(module, modulePaths);
+      var tool = tools.stream().filter(provider -> provider.name().equals(name)).findAny();
+      if (tool.isEmpty()) {
+        err.println("Tool provider with name '" + name + "' not found in worker");
+        return 1;
+      }
+      thread.setContextClassLoader(tool.get().getClass().getClassLoader());
+      return tool.get().run(out, err, args);
+    } catch (Throwable throwable) {
+      throwable.printStackTrace(err);
+      return 1;
+    } finally {
+      thread.setContextClassLoader(loader);
+      out.flush();
+      err.flush();
+      normal.close();
+      errors.close();
+    }
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    var bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeString(DataOutputStream out, String string) throws IOException {
+    var bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** The stream of messages sent by a worker. */
+  static final class Channel {
+
+    private final DataOutputStream out;
+
+    Channel(OutputStream stream) {
+      this.out = new DataOutputStream(new BufferedOutputStream(stream));
+    }
+
+    synchronized void line(byte type, String line) {
+      try {
+        out.writeByte(type);
+        writeString(out, line);
+        out.flush();
+      } catch (IOException exception) {
+        // the build process is gone, nobody is listening
+      }
+    }
+
+    synchronized void exit(int code) throws IOException {
+      out.writeByte(EXIT);
+      out.writeInt(code);
+      out.flush();
+    }
+  }
+
+  /** An output stream that sends each complete line as a message. */
+  static final class Forwarder extends OutputStream {
+
+    private final Channel channel;
+    private final byte type;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    Forwarder(Channel channel, byte type) {
+      this.channel = channel;
+      this.type = type;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      if (b != '\n') {
+        line.write(b);
+        return;
+      }
+      send();
+    }
+
+    @Override
+    public synchronized void close() {
+      if (line.size() > 0) send();
+    }
+
+    private void send() {
+      var text = line.toString(StandardCharsets.UTF_8);
+      line.reset();
+      channel.line(type, text.endsWith("\r") ? text.substring(0, text.length() - 1) : text);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.spi.ToolProvider;
+
+/**
+ * A pool of forked virtual machines that run test tools, each in its own process.
+ *
+ * <p>Workers are started up front and reused for further requests as long as they completed their
+ * last request normally. A worker whose tool failed or that terminated unexpectedly is destroyed,
+ * as its static state is not trustworthy anymore.
+ *
+ * @see TestWorker
+ */
+public final class TestWorkerPool implements AutoCloseable {
+
+  /** Return the command that launches a worker process using this virtual machine's Bach module. */
+  public static List<String> command() {
+    var module = TestWorkerPool.class.getModule();
+    var location =
+        module.getLayer().configuration().findModule(module.getName()).orElseThrow().reference()
+            .location()
+            .orElseThrow(() -> new IllegalStateException("Bach module has no location"));
+    var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    var main = module.getName() + '/' + TestWorker.class.getName();
+    var modulePath = Path.of(location).toString();
+    return List.of(java, "--enable-preview", "--module-path", modulePath, "--module", main);
+  }
+
+  private final List<String> command;
+  private final Queue<Worker> idle = new ConcurrentLinkedQueue<>();
+  private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Create a pool of test workers.
+   *
+   * @param command The command launching a worker process
+   * @param size The number of workers to start immediately
+   */
+  public TestWorkerPool(List<String> command, int size) {
+    this.command = List.copyOf(command);
+    for (int i = 0; i < size; i++) idle.add(start());
+  }
+
+  /** Return a tool provider that runs the named tool found by resolving a module in a worker. */
+  public ToolProvider provider(String name, String module, List<Path> modulePaths) {
+    return new ToolProvider() {
+      @Override
+      public String name() {
+        return name;
+      }
+
+      @Override
+      public int run(PrintWriter out, PrintWriter err, String... args) {
+        return TestWorkerPool.this.run(name, module, modulePaths, out, err, args);
+      }
+    };
+  }
+
+  int run(
+      String tool,
+      String module,
+      List<Path> modulePaths,
+      PrintWriter out,
+      PrintWriter err,
+      String... args) {
+    var worker = idle.poll();
+    while (worker != null && !worker.isAlive()) {
+      worker.destroy();
+      worker = idle.poll();
+    }
+    if (worker == null) worker = start();
+    try {
+      var code = worker.run(tool, module, modulePaths, out, err, args);
+      if (code == 0) idle.add(worker);
+      else worker.destroy();
+      return code;
+    } catch (IOException exception) {
+      worker.destroy();
+      throw new UncheckedIOException("Test worker terminated unexpectedly", exception);
+    }
+  }
+
+  @Override
+  public void close() {
+    workers.forEach(Worker::destroy);
+    idle.clear();
+  }
+
+  private Worker start() {
+    try {
+      var builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+      var process = builder.start();
+      var worker = new Worker(process, process.getOutputStream(), process.getInputStream());
+      workers.add(worker);
+      return worker;
+    } catch (IOException exception) {
+      throw new UncheckedIOException("Starting test worker failed: " + command, exception);
+    }
+  }
+
+  /** A connection to a worker. */
+  static final class Worker {
+
+    private final Process process;
+    private final DataOutputStream requests;
+    private final DataInputStream messages;
+
+    Worker(Process process, OutputStream requests, InputStream messages) {
+      this.process = process;
+      this.requests = new DataOutputStream(new BufferedOutputStream(requests));
+      this.messages = new DataInputStream(new BufferedInputStream(messages));
+    }
+
+    boolean isAlive() {
+      return process == null || process.isAlive();
+    }
+
+    void destroy() {
+      if (process != null) process.destroyForcibly();
+    }
+
+    int run(
+        String tool,
+        String module,
+        List<Path> modulePaths,
+        PrintWriter out,
+        PrintWriter err,
+        String... args)
+        throws IOException {
+      TestWorker.writeString(requests, tool);
+      TestWorker.writeString(requests, module);
+      requests.writeInt(modulePaths.size());
+      for (var path : modulePaths) TestWorker.writeString(requests, path.toString());
+      requests.writeInt(args.length);
+      for (var arg : args) TestWorker.writeString(requests, arg);
+      requests.flush();
+      while (true) {
+        var type = messages.readByte();
+        if (type == TestWorker.EXIT) return messages.readInt();
+        var line = TestWorker.readString(messages);
+        (type == TestWorker.ERR ? err : out).println(line);
+      }
+    }
+  }
+}
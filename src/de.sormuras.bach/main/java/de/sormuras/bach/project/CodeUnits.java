@@ -24,10 +24,14 @@ import de.sormuras.bach.internal.Paths;
 import java.io.File;
 import java.lang.module.FindException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
@@ -99,6 +103,56 @@ public final class CodeUnits {
     return map.values().stream();
   }
 
+  /**
+   * Return all units sorted in an order that lists each unit after the units it requires.
+   *
+   * @return A list of all units sorted by their requires directives
+   * @throws IllegalStateException if the requires directives form a cycle
+   */
+  public List<CodeUnit> toUnitsInRequiresOrder() {
+    var sorted = new LinkedHashMap<String, CodeUnit>();
+    for (var unit : new TreeMap<>(map).values()) sort(unit, sorted, new ArrayDeque<>());
+    return List.copyOf(sorted.values());
+  }
+
+  private void sort(CodeUnit unit, Map<String, CodeUnit> sorted, Deque<String> path) {
+    var name = unit.name();
+    if (sorted.containsKey(name)) return;
+    if (path.contains(name)) throw new IllegalStateException("Cyclic requires: " + path);
+    path.push(name);
+    for (var required : toRequiredNames(unit)) sort(map.get(required), sorted, path);
+    path.pop();
+    sorted.put(name, unit);
+  }
+
+  /**
+   * Return names of units that are directly required by the given unit.
+   *
+   * @param unit The requiring unit
+   * @return A sorted set of names of modules that are declared by units of this map
+   */
+  public Set<String> toRequiredNames(CodeUnit unit) {
+    var names = new TreeSet<>(Modules.required(unit.descriptor()));
+    names.retainAll(map.keySet());
+    return names;
+  }
+
+  /**
+   * Return names of units that are directly or indirectly required by the given unit.
+   *
+   * @param unit The requiring unit
+   * @return A sorted set of names of modules that are declared by units of this map
+   */
+  public Set<String> toRequiredNamesClosure(CodeUnit unit) {
+    var names = new TreeSet<String>();
+    var pending = new ArrayDeque<>(toRequiredNames(unit));
+    while (!pending.isEmpty()) {
+      var name = pending.pop();
+      if (names.add(name)) pending.addAll(toRequiredNames(map.get(name)));
+    }
+    return names;
+  }
+
   public List<String> toModuleSourcePaths(boolean forceModuleSpecificForm) {
     var paths = new ArrayList<String>();
     var patterns = new TreeSet<String>(); // "src:etc/*/java"
@@ -37,6 +37,14 @@ public final class JUnit implements Call<JUnit> {
     this.arguments = arguments;
   }
 
+  public String module() {
+    return module;
+  }
+
+  public List<Path> modulePaths() {
+    return modulePaths;
+  }
+
   @Override
   public String name() {
     return "junit";
@@ -57,6 +65,13 @@ public final class JUnit implements Call<JUnit> {
   @Override
   public String toDescriptiveLine() {
     var value = findValue("--select-module");
+    var classes = arguments.stream().filter(it -> it.option().equals("--select-class")).count();
+    var methods = arguments.stream().filter(it -> it.option().equals("--select-method")).count();
+    if (methods > 0) {
+      var selected = classes > 0 ? classes + " classes and " + methods : methods;
+      return "Launch JUnit Platform for " + selected + " methods of module " + module;
+    }
+    if (classes > 0) return "Launch JUnit Platform for " + classes + " classes of module " + module;
     if (value.isEmpty()) return Call.super.toDescriptiveLine();
     return "Launch JUnit Platform for module " + value.get();
   }
@@ -35,6 +35,14 @@ public final class TestModule implements Call<TestModule> {
     this.modulePaths = modulePaths;
   }
 
+  public String module() {
+    return module;
+  }
+
+  public List<Path> modulePaths() {
+    return modulePaths;
+  }
+
   @Override
   public String name() {
     return "test";
@@ -45,6 +45,7 @@ module de.sormuras.bach {
 
   requires transitive java.net.http;
   requires jdk.compiler;
+  requires static jdk.httpserver; // only used by the reference build cache server
   requires jdk.jartool;
   requires jdk.jdeps;
   requires jdk.jlink;
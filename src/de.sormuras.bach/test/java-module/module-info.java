@@ -24,6 +24,7 @@ open /*test*/ module de.sormuras.bach {
 
   requires transitive java.net.http;
   requires jdk.compiler;
+  requires jdk.httpserver;
   requires jdk.jartool;
   requires jdk.jdeps;
   requires jdk.jlink;
@@ -0,0 +1,167 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.sormuras.bach.project.Base;
+import java.io.PrintWriter;
+import java.lang.System.Logger.Level;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.spi.ToolProvider;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import test.base.Sources;
+
+class BachTests {
+
+  @Test
+  void failFastCancelsRunningAndPendingToolCalls(@TempDir Path temp) throws Exception {
+    Sources.write(temp, "a/main/java/module-info.java", "module a {}");
+    var lines = new CopyOnWriteArrayList<String>();
+    var logbook = new Logbook(lines::add, Level.ALL);
+    var flags = new Configuration.Flags(EnumSet.of(Flag.FAIL_FAST, Flag.FAIL_ON_ERROR));
+    var configuration = Configuration.ofSystem().flags(flags).logbook(logbook);
+    var bach = new Bach(configuration, Project.ofDirectory(Base.of(temp)));
+
+    var started = new CountDownLatch(1);
+    var interrupted = new AtomicBoolean();
+    var blocker =
+        new ProvidedCall(
+            "blocker",
+            () -> {
+              started.countDown();
+              try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(9));
+                return 0;
+              } catch (InterruptedException e) {
+                interrupted.set(true);
+                return 1;
+              }
+            });
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      var cleared = new AtomicBoolean();
+      var running =
+          executor.submit(
+              () -> {
+                try {
+                  bach.run(blocker);
+                } finally {
+                  cleared.set(!Thread.currentThread().isInterrupted());
+                }
+              });
+      assertTrue(started.await(9, TimeUnit.SECONDS));
+      assertThrows(AssertionError.class, () -> bach.run(new ProvidedCall("failer", () -> 1)));
+
+      var exception =
+          assertThrows(ExecutionException.class, () -> running.get(9, TimeUnit.SECONDS));
+      assertTrue(exception.getCause() instanceof CancellationException, exception.toString());
+      assertTrue(interrupted.get(), "blocker interrupted");
+      assertTrue(cleared.get(), "interrupt flag cleared");
+    } finally {
+      executor.shutdownNow();
+    }
+
+    var pending = new AtomicBoolean();
+    var call =
+        new ProvidedCall(
+            "pending",
+            () -> {
+              pending.set(true);
+              return 0;
+            });
+    assertThrows(CancellationException.class, () -> bach.run(call));
+    assertFalse(pending.get(), "pending tool call skipped");
+
+    assertTrue(lines.stream().anyMatch(line -> line.contains("blocker cancelled")), "" + lines);
+    assertTrue(lines.stream().anyMatch(line -> line.contains("failer failed")), "" + lines);
+    assertTrue(lines.stream().noneMatch(line -> line.contains("blocker failed")), "" + lines);
+    var error =
+        assertThrows(
+            AssertionError.class, () -> logbook.printSummaryAndCheckErrors(bach, line -> {}));
+    assertEquals("Detected 1 error", error.getMessage());
+  }
+
+  /** The body of a tool returning its exit code. */
+  private interface Body {
+    int run();
+  }
+
+  /** A call that is run by the given tool body. */
+  private static final class ProvidedCall implements Call<ProvidedCall> {
+
+    private final String name;
+    private final Body body;
+    private final List<Argument> arguments;
+
+    ProvidedCall(String name, Body body) {
+      this(name, body, List.of());
+    }
+
+    private ProvidedCall(String name, Body body, List<Argument> arguments) {
+      this.name = name;
+      this.body = body;
+      this.arguments = arguments;
+    }
+
+    @Override
+    public String name() {
+      return name;
+    }
+
+    @Override
+    public List<Argument> arguments() {
+      return arguments;
+    }
+
+    @Override
+    public ProvidedCall with(List<Argument> arguments) {
+      return new ProvidedCall(name, body, arguments);
+    }
+
+    @Override
+    public Optional<ToolProvider> findProvider() {
+      return Optional.of(
+          new ToolProvider() {
+            @Override
+            public String name() {
+              return name;
+            }
+
+            @Override
+            public int run(PrintWriter out, PrintWriter err, String... args) {
+              return body.run();
+            }
+          });
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.jupiter.api.parallel.Resources;
+import test.base.SwallowSystem;
+
+class MainTests {
+
+  @Test
+  @SwallowSystem
+  @ResourceLock(Resources.SYSTEM_PROPERTIES)
+  void optionsAreAppliedBeforeActions() {
+    try {
+      assertEquals(0, Main.ofSystem().run("version", "--shard=2/3"));
+      assertEquals("2/3", System.getProperty("bach.test.shard"));
+    } finally {
+      System.clearProperty("bach.test.shard");
+    }
+  }
+
+  @Test
+  void unknownOptionIsRejectedBeforeAnyActionRuns() {
+    var main = Main.ofSystem();
+    var exception = assertThrows(IllegalArgumentException.class, () -> main.run("clean", "--x"));
+    assertEquals("Unknown option: --x", exception.getMessage());
+  }
+}
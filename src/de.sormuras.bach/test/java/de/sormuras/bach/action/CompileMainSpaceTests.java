@@ -0,0 +1,86 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.action;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.sormuras.bach.Bach;
+import de.sormuras.bach.Configuration;
+import de.sormuras.bach.Flag;
+import de.sormuras.bach.Project;
+import de.sormuras.bach.project.Base;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import test.base.Sources;
+
+class CompileMainSpaceTests {
+
+  @Test
+  void implementationChangeDoesNotRecompileRequiringModules(@TempDir Path temp) throws Exception {
+    Sources.write(temp, "a/main/java/module-info.java", "module a { exports a; }");
+    a(temp, "\"1\"");
+    Sources.write(temp, "b/main/java/module-info.java", "module b { requires a; }");
+    Sources.write(temp, "b/main/java/b/B.java", "package b; class B { String s = a.A.s(); }");
+    var action = new CompileMainSpace(bach(temp));
+    action.buildMainModulesSeparately();
+    assertTrue(Files.isRegularFile(action.project().toModuleArchive("", "b")));
+
+    mark(action, "a", "b");
+    a(temp, "\"2\"");
+    action.buildMainModulesSeparately();
+    assertFalse(isMarked(action, "a"), "a recompiled");
+    assertTrue(isMarked(action, "b"), "b not recompiled");
+
+    mark(action, "a", "b");
+    a(temp, "\"3\"; } public static int i() { return 3;");
+    action.buildMainModulesSeparately();
+    assertFalse(isMarked(action, "a"), "a recompiled");
+    assertFalse(isMarked(action, "b"), "b recompiled due to API change of a");
+  }
+
+  private static void a(Path temp, String body) throws Exception {
+    var source =
+        "package a; public class A { private A() {} public static String s() { return %s; } }";
+    Sources.write(temp, "a/main/java/a/A.java", String.format(source, body));
+  }
+
+  /** Put a marker file into each module's classes directory, which recompiling deletes. */
+  private static void mark(CompileMainSpace action, String... modules) throws Exception {
+    for (var module : modules) Files.writeString(marker(action, module), module);
+  }
+
+  private static boolean isMarked(CompileMainSpace action, String module) {
+    return Files.exists(marker(action, module));
+  }
+
+  private static Path marker(CompileMainSpace action, String module) {
+    var release = action.main().release().feature();
+    return action.base().classes("", release, module).resolve("marker");
+  }
+
+  private static Bach bach(Path temp) {
+    var flags = new Configuration.Flags(EnumSet.of(Flag.COMPILE_MAIN_MODULES_SEPARATELY));
+    var configuration = Configuration.ofSystem().with(Level.OFF).flags(flags);
+    return new Bach(configuration, Project.ofDirectory(Base.of(temp)));
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.action;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import de.sormuras.bach.Bach;
+import de.sormuras.bach.Configuration;
+import de.sormuras.bach.Flag;
+import de.sormuras.bach.Project;
+import de.sormuras.bach.internal.Fingerprints;
+import de.sormuras.bach.project.Base;
+import de.sormuras.bach.project.CodeUnit;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompileTestSpaceTests {
+
+  @Test
+  void modulesAreExecutedInGivenOrderByDefault(@TempDir Path temp) throws Exception {
+    var action = new CompileTestSpace(bach(temp));
+    var executed = new CopyOnWriteArrayList<String>();
+    var units = units(action);
+    action.executeModules(unit -> executed.add(unit.name()), units, Set.of("t1"));
+    assertEquals(List.of("t1", "t2", "t3"), executed);
+  }
+
+  @Test
+  void sequentialModulesAreExecutedAfterParallelModules(@TempDir Path temp) throws Exception {
+    var action = new CompileTestSpace(bach(temp, Flag.RUN_TEST_MODULES_IN_PARALLEL));
+    var executed = new CopyOnWriteArrayList<String>();
+    var units = units(action);
+    action.executeModules(unit -> executed.add(unit.name()), units, Set.of("t1"));
+    assertEquals(Set.of("t2", "t3"), Set.copyOf(executed.subList(0, 2)));
+    assertEquals("t1", executed.get(2));
+  }
+
+  @Test
+  void unchangedModulesAreSkipped(@TempDir Path temp) throws Exception {
+    var action = new CompileTestSpace(bach(temp));
+    upstream(action).store("a", "1");
+    var impacts = action.computeImpactFingerprints();
+    assertEquals(List.of("t1", "t2", "t3"), names(action.computeAffectedUnits(impacts)));
+
+    action.storeTested("t1", impacts.get("t1").orElseThrow());
+    assertEquals(List.of("t2", "t3"), names(action.computeAffectedUnits(impacts)));
+  }
+
+  @Test
+  void upstreamFingerprintChangeAffectsModules(@TempDir Path temp) throws Exception {
+    var action = new CompileTestSpace(bach(temp));
+    upstream(action).store("a", "1");
+    var impacts = action.computeImpactFingerprints();
+    impacts.forEach((module, impact) -> action.storeTested(module, impact.orElseThrow()));
+    assertEquals(List.of(), names(action.computeAffectedUnits(impacts)));
+
+    upstream(action).store("a", "2");
+    var changed = action.computeImpactFingerprints();
+    assertEquals(List.of("t1", "t2", "t3"), names(action.computeAffectedUnits(changed)));
+  }
+
+  @Test
+  void runAllTestsOverridesSkip(@TempDir Path temp) throws Exception {
+    var action = new CompileTestSpace(bach(temp, Flag.RUN_ALL_TESTS));
+    upstream(action).store("a", "1");
+    var impacts = action.computeImpactFingerprints();
+    impacts.forEach((module, impact) -> action.storeTested(module, impact.orElseThrow()));
+    assertEquals(List.of("t1", "t2", "t3"), names(action.computeAffectedUnits(impacts)));
+  }
+
+  static Bach bach(Path temp, Flag... flags) throws Exception {
+    module(temp.resolve("a/main/java"), "module a {}");
+    for (var name : List.of("t1", "t2", "t3")) {
+      module(temp.resolve(name + "/test/java"), "open module " + name + " { requires a; }");
+    }
+    var set = EnumSet.noneOf(Flag.class);
+    set.addAll(List.of(flags));
+    var configuration =
+        Configuration.ofSystem().with(Level.OFF).flags(new Configuration.Flags(set));
+    return new Bach(configuration, Project.ofDirectory(Base.of(temp)));
+  }
+
+  static List<CodeUnit> units(BuildTestCodeSpace<?> action) {
+    return action.space().units().toUnits().sorted().collect(Collectors.toList());
+  }
+
+  static List<String> names(List<CodeUnit> units) {
+    return units.stream().map(CodeUnit::name).sorted().collect(Collectors.toList());
+  }
+
+  /** Return the store of fingerprints recorded for modules of the main space. */
+  static Fingerprints upstream(BuildTestCodeSpace<?> action) {
+    var title = action.computeUpstreamSpaces().get(0).title();
+    return new Fingerprints(action.base().workspace("fingerprints", title));
+  }
+
+  private static void module(Path directory, String declaration) throws Exception {
+    Files.createDirectories(directory);
+    Files.writeString(directory.resolve("module-info.java"), declaration);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.sormuras.bach.Call;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BuildCacheTests {
+
+  @Test
+  void outputsOfJavacInMultiModuleMode() {
+    var javac = Call.javac().with("--module", "a,b").with("-d", Path.of("classes"));
+    var expected = List.of(Path.of("classes", "a"), Path.of("classes", "b"));
+    assertEquals(expected, BuildCache.computeOutputs(javac));
+  }
+
+  @Test
+  void inputsOfJarCall(@TempDir Path temp) throws Exception {
+    var classes = Files.createDirectories(temp.resolve("classes"));
+    var archive = temp.resolve("a.jar");
+    var jar = Call.jar().with("--create").with("--file", archive).with("-C", classes, ".");
+    assertEquals(Set.of(classes), BuildCache.computeInputs(jar));
+  }
+
+  @Test
+  void keyOfJavacCallIgnoresOutputsOfPreviousBuild(@TempDir Path temp) throws Exception {
+    var source = Files.createDirectories(temp.resolve("src").resolve("a"));
+    Files.writeString(source.resolve("module-info.java"), "module a {}");
+    var classes = temp.resolve("classes");
+    var javac =
+        Call.javac()
+            .with("--module", "a")
+            .with("--module-source-path", temp.resolve("src"))
+            .with("-d", classes);
+    var cache = new BuildCache(temp.resolve("cache"));
+    var first = cache.computeKey(javac).orElseThrow();
+    assertEquals(0, javac.run());
+    assertTrue(Files.exists(classes.resolve("a").resolve("module-info.class")));
+    var second = cache.computeKey(javac).orElseThrow();
+    assertEquals(first.hash(), second.hash());
+    assertEquals(0, javac.run());
+    assertEquals(first.hash(), cache.computeKey(javac).orElseThrow().hash());
+  }
+
+  @Test
+  void storeAndRestoreOutputs(@TempDir Path temp) throws Exception {
+    var cache = new BuildCache(temp.resolve("cache"));
+    var source = Files.createDirectories(temp.resolve("source"));
+    Files.writeString(source.resolve("A.txt"), "a");
+    var archive = temp.resolve("a.jar");
+    var call = Call.jar().with("--create").with("--file", archive).with("-C", source, ".");
+    var key = cache.computeKey(call).orElseThrow();
+    assertEquals(Optional.empty(), cache.restore(key));
+
+    Files.writeString(archive, "archive");
+    cache.store(key);
+    Files.delete(archive);
+    assertEquals(Optional.of(7L), cache.restore(key));
+    assertEquals("archive", Files.readString(archive));
+
+    Files.writeString(source.resolve("A.txt"), "b");
+    var changed = cache.computeKey(call).orElseThrow();
+    assertNotEquals(key.hash(), changed.hash());
+    assertTrue(cache.restore(changed).isEmpty());
+  }
+
+  @Test
+  void restoreRejectsActionsTargetingPathsOutsideOfOutputs(@TempDir Path temp) throws Exception {
+    var cache = new BuildCache(temp.resolve("cache"));
+    var source = Files.createDirectories(temp.resolve("source"));
+    var archive = temp.resolve("a.jar");
+    var call = Call.jar().with("--create").with("--file", archive).with("-C", source, ".");
+    var key = cache.computeKey(call).orElseThrow();
+    Files.writeString(archive, "archive");
+    cache.store(key);
+
+    var action = cache.directory().resolve("actions").resolve(key.hash());
+    var line = Files.readString(action).strip();
+    var hash = line.substring(0, line.indexOf(' '));
+    var outside = temp.resolve("outside.txt");
+    var forged =
+        List.of(
+            hash + " 7 archive " + Paths.replaceBackslashes(outside),
+            hash + " 7 file " + Paths.replaceBackslashes(archive.resolve("..").resolve("x.txt")),
+            "../../../outside 7 file " + Paths.replaceBackslashes(archive),
+            hash + " 8 archive " + Paths.replaceBackslashes(archive),
+            hash + " -7 archive " + Paths.replaceBackslashes(archive));
+    for (var forgery : forged) {
+      Files.write(action, List.of(forgery));
+      assertTrue(cache.restore(key).isEmpty(), forgery);
+      assertTrue(Files.notExists(action), forgery);
+      assertEquals("archive", Files.readString(archive), forgery);
+    }
+    assertTrue(Files.notExists(outside));
+    assertTrue(Files.notExists(temp.resolve("x.txt")));
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.spi.ToolProvider;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DaemonTests {
+
+  @Test
+  void runToolsInDaemon(@TempDir Path temp) throws Exception {
+    var file = Daemon.file(temp);
+    assertTrue(Daemon.find(file).isEmpty());
+    try (var daemon = Daemon.start(file)) {
+      assertTrue(Files.exists(file));
+      var connection = Daemon.find(file).orElseThrow();
+      assertEquals(daemon.port(), connection.port());
+
+      var out = new StringWriter();
+      var err = new StringWriter();
+      assertEquals(0, connection.run("javac", out, err, "--version"));
+      assertTrue(out.toString().startsWith("javac "), out.toString());
+
+      var errors = new StringWriter();
+      assertEquals(1, connection.run("bach", new StringWriter(), errors));
+      assertEquals("Tool not provided by daemon: bach", errors.toString());
+    }
+    assertTrue(Files.notExists(file));
+  }
+
+  @Test
+  void outputOfToolsIsStreamedToClient(@TempDir Path temp) throws Exception {
+    var expected = new StringWriter();
+    var jar = ToolProvider.findFirst("jar").orElseThrow();
+    assertEquals(0, jar.run(new PrintWriter(expected, true), new PrintWriter(expected), "--help"));
+
+    try (var daemon = Daemon.start(Daemon.file(temp))) {
+      var connection = Daemon.find(Daemon.file(temp)).orElseThrow();
+      assertEquals(daemon.port(), connection.port());
+      var chunks = new ArrayList<String>();
+      var out =
+          new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+              chunks.add(new String(buffer, offset, length));
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+          };
+      assertEquals(0, connection.run("jar", out, new StringWriter(), "--help"));
+      assertFalse(chunks.isEmpty());
+      assertEquals(expected.toString(), String.join("", chunks));
+    }
+  }
+
+  @Test
+  void malformedRequestsAreRejectedWithoutResponse(@TempDir Path temp) throws Exception {
+    var file = Daemon.file(temp);
+    try (var daemon = Daemon.start(file)) {
+      var properties = new Properties();
+      try (var reader = Files.newBufferedReader(file)) {
+        properties.load(reader);
+      }
+      var token = properties.getProperty("token").getBytes(StandardCharsets.UTF_8);
+      var wrong = new byte[token.length];
+      // a wrong token, a token of the wrong size, too many arguments, and a too long argument
+      assertRejected(daemon, out -> out.writeInt(wrong.length), out -> out.write(wrong));
+      assertRejected(daemon, out -> out.writeInt(Integer.MAX_VALUE));
+      assertRejected(
+          daemon,
+          out -> writeBytes(out, token),
+          out -> writeBytes(out, new byte[3]),
+          out -> out.writeInt(Integer.MAX_VALUE));
+      assertRejected(
+          daemon,
+          out -> writeBytes(out, token),
+          out -> writeBytes(out, new byte[3]),
+          out -> out.writeInt(1),
+          out -> out.writeInt(Daemon.MAX_REQUEST_BYTES));
+      var out = new StringWriter();
+      var connection = Daemon.find(file).orElseThrow();
+      assertEquals(0, connection.run("javac", out, new StringWriter(), "--version"));
+    }
+  }
+
+  private interface Part {
+    void write(DataOutputStream out) throws Exception;
+  }
+
+  private static void assertRejected(Daemon daemon, Part... parts) throws Exception {
+    try (var socket = new Socket(InetAddress.getLoopbackAddress(), daemon.port())) {
+      socket.setSoTimeout(Daemon.REQUEST_TIMEOUT);
+      var out = new DataOutputStream(socket.getOutputStream());
+      for (var part : parts) part.write(out);
+      out.flush();
+      assertEquals(-1, socket.getInputStream().read());
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws Exception {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FingerprintTests {
+
+  @Test
+  void stringsAreSeparated() {
+    var ab = new Fingerprint().add("a").add("b").toHexString();
+    assertEquals(64, ab.length());
+    assertEquals(ab, new Fingerprint().add("a").add("b").toHexString());
+    assertNotEquals(ab, new Fingerprint().add("ab").toHexString());
+  }
+
+  @Test
+  void treeReflectsNamesAndContents(@TempDir Path temp) throws Exception {
+    var directory = Files.createDirectories(temp.resolve("a/b"));
+    var file = Files.writeString(directory.resolve("C.java"), "1");
+    var first = new Fingerprint().addTree(temp).toHexString();
+    assertEquals(first, new Fingerprint().addTree(temp).toHexString());
+
+    Files.writeString(file, "2");
+    var second = new Fingerprint().addTree(temp).toHexString();
+    assertNotEquals(first, second);
+
+    Files.move(file, file.resolveSibling("D.java"));
+    assertNotEquals(second, new Fingerprint().addTree(temp).toHexString());
+  }
+
+  @Test
+  void storeLoadAndRemove(@TempDir Path temp) {
+    var fingerprints = new Fingerprints(temp.resolve("fingerprints"));
+    assertTrue(fingerprints.load("m").isEmpty());
+    fingerprints.store("m", "123");
+    assertEquals(Optional.of("123"), fingerprints.load("m"));
+    fingerprints.remove("m");
+    assertTrue(fingerprints.load("m").isEmpty());
+  }
+}
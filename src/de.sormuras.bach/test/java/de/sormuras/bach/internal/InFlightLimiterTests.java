@@ -0,0 +1,79 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class InFlightLimiterTests {
+
+  @Test
+  void operationsBeyondLimitWaitForEarlierOperationsToComplete() {
+    var limiter = new InFlightLimiter(2);
+    var operations = new ArrayList<CompletableFuture<Integer>>();
+    var results = new ArrayList<CompletableFuture<Integer>>();
+    for (int i = 0; i < 5; i++) {
+      results.add(limiter.submit(() -> add(operations, new CompletableFuture<>())));
+    }
+    assertEquals(2, operations.size());
+    operations.get(0).complete(0);
+    assertEquals(3, operations.size());
+    assertTrue(results.get(0).isDone());
+    assertFalse(results.get(1).isDone());
+    for (int i = 1; i < 5; i++) operations.get(i).complete(i);
+    assertEquals(5, operations.size());
+    for (int i = 0; i < 5; i++) assertEquals(i, results.get(i).join());
+  }
+
+  @Test
+  void failingOperationReleasesItsSlot() {
+    var limiter = new InFlightLimiter(1);
+    var error = new IllegalStateException("failed");
+    var failed = limiter.submit(() -> CompletableFuture.failedFuture(error));
+    var thrown = assertThrows(CompletionException.class, failed::join);
+    assertSame(error, thrown.getCause());
+    Supplier<CompletableFuture<String>> throwing =
+        () -> {
+          throw error;
+        };
+    var rejected = limiter.submit(throwing);
+    assertSame(error, assertThrows(CompletionException.class, rejected::join).getCause());
+    assertEquals("ok", limiter.submit(() -> CompletableFuture.completedFuture("ok")).join());
+  }
+
+  @Test
+  void nonPositiveLimitIsRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new InFlightLimiter(0));
+  }
+
+  private static <T> CompletableFuture<T> add(
+      List<CompletableFuture<T>> operations, CompletableFuture<T> operation) {
+    operations.add(operation);
+    return operation;
+  }
+}
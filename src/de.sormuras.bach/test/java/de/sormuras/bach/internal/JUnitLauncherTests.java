@@ -0,0 +1,99 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.spi.ToolProvider;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JUnitLauncherTests {
+
+  @Test
+  void streamEventsOfSelectedClass(@TempDir Path temp) {
+    var layer = getClass().getModule().getLayer();
+    var console =
+        ServiceLoader.load(layer, ToolProvider.class).stream()
+            .map(ServiceLoader.Provider::get)
+            .filter(provider -> provider.name().equals("junit"))
+            .findFirst();
+    Assumptions.assumeTrue(console.isPresent(), "JUnit Platform console tool not found");
+
+    var events = new ArrayList<String>();
+    var launcher =
+        new JUnitLauncher(
+            console.get(),
+            new JUnitLauncher.Listener() {
+              @Override
+              public void testStarted(String name) {
+                events.add("started " + name);
+              }
+
+              @Override
+              public void testFinished(String type, String name, String status, Duration duration) {
+                events.add(status + ' ' + name);
+              }
+            });
+
+    var out = new StringWriter();
+    var err = new StringWriter();
+    var name = Fixture.class.getName();
+    var args = new String[] {"--select-class", name, "--reports-dir", temp.toString()};
+    var code = launcher.run(new PrintWriter(out), new PrintWriter(err), args);
+
+    assertEquals(0, code, err.toString());
+    assertEquals("junit", launcher.name());
+    events.sort(String::compareTo);
+    var expected =
+        List.of(
+            "ABORTED " + name + "#aborted()",
+            "SKIPPED " + name + "#disabled()",
+            "SUCCESSFUL " + name + "#passed()",
+            "started " + name + "#aborted()",
+            "started " + name + "#passed()");
+    assertLinesMatch(expected, events);
+    assertTrue(Files.exists(temp.resolve("TEST-junit-jupiter.xml")));
+  }
+
+  static class Fixture {
+    @Test
+    void passed() {}
+
+    @Test
+    void aborted() {
+      Assumptions.assumeTrue(false, "aborted on purpose");
+    }
+
+    @Test
+    @Disabled("skipped on purpose")
+    void disabled() {}
+  }
+}
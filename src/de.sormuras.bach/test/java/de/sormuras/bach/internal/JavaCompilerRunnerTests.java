@@ -0,0 +1,130 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import test.base.Sources;
+
+class JavaCompilerRunnerTests {
+
+  @Test
+  void compileModuleTwiceWithSameFileManager(@TempDir Path temp) throws Exception {
+    var source = Files.createDirectories(temp.resolve("src/m/p"));
+    Files.writeString(source.getParent().resolve("module-info.java"), "module m { exports p; }");
+    Files.writeString(source.resolve("A.java"), "package p; public class A { A() {} }");
+    var classes = temp.resolve("classes");
+    var args =
+        new String[] {
+          "--release", "11", "-Xlint", "-Werror",
+          "--module", "m",
+          "--module-source-path", temp.resolve("src").toString(),
+          "-d", classes.toString()
+        };
+
+    try (var runner = new JavaCompilerRunner()) {
+      var out = new StringWriter();
+      var err = new StringWriter();
+      assertEquals(0, runner.run(out, err, args), err.toString());
+      assertTrue(Files.isRegularFile(classes.resolve("m/module-info.class")));
+      assertTrue(Files.isRegularFile(classes.resolve("m/p/A.class")));
+
+      Files.writeString(source.resolve("B.java"), "package p; class B {}");
+      assertEquals(0, runner.run(out, err, args), err.toString());
+      assertTrue(Files.isRegularFile(classes.resolve("m/p/B.class")));
+
+      Files.writeString(source.resolve("C.java"), "package p; class C { X x; }");
+      assertEquals(1, runner.run(out, err, args));
+      assertTrue(err.toString().contains("cannot find symbol"), err.toString());
+      assertTrue(err.toString().endsWith("1 error" + System.lineSeparator()), err.toString());
+      assertEquals("", out.toString());
+    }
+  }
+
+  @Test
+  void invalidFlagIsReportedOnce(@TempDir Path temp) {
+    try (var runner = new JavaCompilerRunner()) {
+      var err = new StringWriter();
+      var args = new String[] {"--invalid", "-d", temp.toString()};
+      assertEquals(2, runner.run(new StringWriter(), err, args));
+      assertTrue(err.toString().startsWith("error: invalid flag: --invalid"), err.toString());
+    }
+  }
+
+  @Test
+  void onlyCompilationsAreRunByRunner() {
+    assertTrue(JavaCompilerRunner.isCompilation("-d", "classes", "--module", "m"));
+    assertTrue(JavaCompilerRunner.isCompilation("src/A.java"));
+    assertFalse(JavaCompilerRunner.isCompilation("--version"));
+    assertFalse(JavaCompilerRunner.isCompilation("--help"));
+  }
+
+  @Test
+  void poolIsBoundedByCapacity(@TempDir Path temp) throws Exception {
+    var source = Sources.write(temp, "src/A.java", "class A {}").toString();
+    try (var runner = new JavaCompilerRunner(2)) {
+      for (var path : new String[] {"a", "b", "c", "a"}) {
+        var args = new String[] {"--class-path", path, "-d", temp.resolve(path).toString(), source};
+        assertEquals(0, runner.run(new StringWriter(), new StringWriter(), args));
+      }
+      assertEquals(2, runner.size());
+    }
+    try (var runner = new JavaCompilerRunner(0)) {
+      var args = new String[] {"-d", temp.resolve("z").toString(), source};
+      assertEquals(0, runner.run(new StringWriter(), new StringWriter(), args));
+      assertEquals(0, runner.size());
+    }
+  }
+
+  @Test
+  void fileManagerIsNotPooledWhenCompilerThrows(@TempDir Path temp) throws Exception {
+    var processor =
+        "import java.util.Set;\n"
+            + "import javax.annotation.processing.*;\n"
+            + "import javax.lang.model.element.TypeElement;\n"
+            + "@SupportedAnnotationTypes(\"*\")\n"
+            + "public class P extends AbstractProcessor {\n"
+            + "  public boolean process(Set<? extends TypeElement> s, RoundEnvironment e) {\n"
+            + "    throw new IllegalStateException(\"boom\");\n"
+            + "  }\n"
+            + "}\n";
+    var processors = temp.resolve("processors");
+    Sources.javac("-d", processors, Sources.write(temp, "p/P.java", processor));
+    var source = Sources.write(temp, "src/A.java", "class A {}").toString();
+    var args =
+        new String[] {
+          "--processor-path", processors.toString(),
+          "-processor", "P",
+          "-d", temp.resolve("classes").toString(),
+          source
+        };
+    try (var runner = new JavaCompilerRunner()) {
+      var err = new StringWriter();
+      assertThrows(RuntimeException.class, () -> runner.run(new StringWriter(), err, args));
+      assertEquals(0, runner.size());
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import de.sormuras.bach.project.Link;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LockFileTests {
+
+  @Test
+  void writeAndReadLinks(@TempDir Path temp) throws Exception {
+    var file = temp.resolve(".bach").resolve("modules.lock");
+    var b = Link.of("b", "https://b.jar#size=2");
+    var a = Link.of("a", "https://a.jar");
+    LockFile.write(file, List.of(b, a));
+    assertLinesMatch(
+        List.of("# .+", "a https://a.jar", "b https://b.jar#size=2"), Files.readAllLines(file));
+    var links = LockFile.read(file);
+    assertEquals(List.of("a", "b"), List.copyOf(links.keySet()));
+    assertEquals("https://b.jar#size=2", links.get("b").uri());
+  }
+
+  @Test
+  void lockAddsSizeAndDigest(@TempDir Path temp) throws Exception {
+    var jar = Files.writeString(temp.resolve("m.jar"), "m");
+    var locked = LockFile.lock(Link.of("m", "https://m.jar"), jar);
+    assertEquals(Optional.of(1), locked.findSize());
+    var digest = new Fingerprint().addContent(jar).toHexString();
+    assertEquals(Map.of(LockFile.ALGORITHM, digest), locked.findDigests());
+    assertSame(locked, LockFile.lock(locked, jar));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import test.base.Sources;
+
+class ModuleApiTests {
+
+  @Test
+  void describeExportedSignaturesAndConstants(@TempDir Path temp) throws Exception {
+    var module = compile(temp, "1", "1");
+    assertLinesMatch(
+        List.of(
+            "module m",
+            "requires mandated java.base.*",
+            "exports p",
+            "class p/A 0001 java/lang/Object \\[\\]",
+            "p/A field 0019 C I = 3:1",
+            "p/A method 0001 <init> \\(\\)V",
+            "p/A method 0001 f \\(\\)I"),
+        ModuleApi.describe(module));
+  }
+
+  @Test
+  void fingerprintIgnoresImplementationDetails(@TempDir Path temp) throws Exception {
+    var expected = ModuleApi.fingerprint(compile(temp.resolve("1"), "1", "1"));
+    assertEquals(expected, ModuleApi.fingerprint(compile(temp.resolve("2"), "1", "2")));
+    assertNotEquals(expected, ModuleApi.fingerprint(compile(temp.resolve("3"), "2", "1")));
+  }
+
+  private static Path compile(Path temp, String constant, String body) throws Exception {
+    var sources = Files.createDirectories(temp.resolve("m"));
+    Files.writeString(sources.resolve("module-info.java"), "module m { exports p; }");
+    Files.createDirectories(sources.resolve("p"));
+    Files.createDirectories(sources.resolve("q"));
+    Files.writeString(
+        sources.resolve("p/A.java"),
+        "package p; public class A {"
+            + ("public static final int C = " + constant + ";")
+            + ("public int f() { return " + body + "; } int g() { return 0; } }"));
+    Files.writeString(
+        sources.resolve("q/B.java"), "package q; public class B { int b = " + body + "; }");
+    var classes = Sources.compileModule(temp, "m", temp.resolve("classes"));
+    return classes.resolve("m");
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import test.base.Sources;
+
+class ModuleLayersTests {
+
+  @Test
+  void reuseModuleLayerUntilModulePathChanges(@TempDir Path temp) throws Exception {
+    var modulePaths = List.of(compileToolModule(temp, "t"));
+    var layers = new ModuleLayers(1);
+    var first = layers.findTools("t", modulePaths).get(0);
+    var second = layers.findTools("t", modulePaths).get(0);
+    var layer = first.getClass().getModule().getLayer();
+    assertNotSame(first, second);
+    assertSame(layer, second.getClass().getModule().getLayer());
+
+    Files.writeString(modulePaths.get(0).resolve("t/extra.txt"), "changed");
+    var third = layers.findTools("t", modulePaths).get(0);
+    assertNotSame(layer, third.getClass().getModule().getLayer());
+  }
+
+  @Test
+  void evictLeastRecentlyUsedModuleLayers(@TempDir Path temp) throws Exception {
+    var one = List.of(compileToolModule(temp.resolve("one"), "t"));
+    var two = List.of(compileToolModule(temp.resolve("two"), "t"));
+    var layers = new ModuleLayers(1);
+    var layer = layers.findTools("t", one).get(0).getClass().getModule().getLayer();
+    layers.findTools("t", two);
+    assertEquals(1, layers.size());
+    var reloaded = layers.findTools("t", one).get(0).getClass().getModule().getLayer();
+    assertNotSame(layer, reloaded);
+
+    layers.clear();
+    assertEquals(0, layers.size());
+  }
+
+  @Test
+  void defineNewModuleLayerWithoutCache(@TempDir Path temp) throws Exception {
+    var modulePaths = List.of(compileToolModule(temp, "t"));
+    var first = Modules.findTools("t", modulePaths).get(0);
+    var second = Modules.findTools("t", modulePaths).get(0);
+    var layer = first.getClass().getModule().getLayer();
+    assertNotSame(layer, second.getClass().getModule().getLayer());
+  }
+
+  /** Compile a module providing a tool of the same name and return its classes directory. */
+  static Path compileToolModule(Path temp, String module) throws Exception {
+    var sources = temp.resolve("src");
+    Sources.write(
+        sources,
+        module + "/module-info.java",
+        "module " + module + " { provides java.util.spi.ToolProvider with " + module + ".T; }");
+    Sources.write(
+        sources,
+        module + "/" + module + "/T.java",
+        "package " + module + "; public class T implements java.util.spi.ToolProvider {"
+            + " public String name() { return \"" + module + "\"; }"
+            + " public int run(java.io.PrintWriter o, java.io.PrintWriter e, String... a) {"
+            + " return 0; } }");
+    return Sources.compileModule(sources, module, temp.resolve("classes"));
+  }
+}
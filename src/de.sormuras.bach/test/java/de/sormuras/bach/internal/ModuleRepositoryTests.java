@@ -0,0 +1,81 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ModuleRepositoryTests {
+
+  @Test
+  void storeFindAndLink(@TempDir Path temp) throws Exception {
+    var repository = new ModuleRepository(temp.resolve("repository"));
+    assertEquals(Optional.empty(), repository.find("m@1"));
+    assertEquals(Optional.empty(), repository.link("m@1", temp.resolve("lib/m.jar")));
+
+    var one = Files.createDirectories(temp.resolve("one"));
+    var file = Files.writeString(one.resolve("m.jar"), "m");
+    var content = repository.store("m@1", file);
+    assertEquals("m", Files.readString(content));
+    assertEquals(Optional.of(content), repository.find("m@1"));
+
+    var target = temp.resolve("two").resolve("lib").resolve("m.jar");
+    assertEquals(Optional.of(target), repository.link("m@1", target));
+    assertEquals("m", Files.readString(target));
+  }
+
+  @Test
+  void equalContentsAreStoredOnce(@TempDir Path temp) throws Exception {
+    var repository = new ModuleRepository(temp.resolve("repository"));
+    var one = Files.writeString(temp.resolve("one.jar"), "same");
+    var two = Files.writeString(temp.resolve("two.jar"), "same");
+    var content = repository.store("one@1", one);
+    assertEquals(content, repository.store("two@2", two));
+    assertEquals("same", Files.readString(two));
+    assertTrue(repository.find("two@2").isPresent());
+  }
+
+  @Test
+  void contentWithDifferentSizeIsNotFound(@TempDir Path temp) throws Exception {
+    var repository = new ModuleRepository(temp.resolve("repository"));
+    var content = repository.store("m@1", Files.writeString(temp.resolve("m.jar"), "m"));
+    assertTrue(content.toFile().setWritable(true));
+    Files.writeString(content, "changed");
+    assertEquals(Optional.empty(), repository.find("m@1"));
+  }
+
+  @Test
+  void storedContentsAreReadOnly(@TempDir Path temp) throws Exception {
+    var repository = new ModuleRepository(temp.resolve("repository"));
+    var file = Files.writeString(temp.resolve("m.jar"), "m");
+    var content = repository.store("m@1", file);
+    if (!Paths.isViewSupported(content, "posix")) return;
+    var permissions = Files.getPosixFilePermissions(content);
+    assertFalse(permissions.contains(PosixFilePermission.OWNER_WRITE), permissions.toString());
+    assertFalse(permissions.contains(PosixFilePermission.GROUP_WRITE), permissions.toString());
+    assertFalse(permissions.contains(PosixFilePermission.OTHERS_WRITE), permissions.toString());
+  }
+}
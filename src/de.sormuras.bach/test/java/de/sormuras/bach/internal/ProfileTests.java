@@ -0,0 +1,64 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProfileTests {
+
+  @Test
+  void renderTableAndReadItBack(@TempDir Path temp) throws Exception {
+    var previous = Map.of("a", List.of(100L, 300L));
+    var lines = Profile.table("Slowest", Map.of("a", 300L, "b", 700L), 1000, previous, 9);
+    assertLinesMatch(
+        List.of(
+            "",
+            "### Slowest",
+            "",
+            "|Duration [ms]| Share | Trend |Name",
+            "|------------:|------:|------:|----",
+            "|          700|  70.0%|    new|`b`",
+            "|          300|  30.0%| +50.0%|`a`"),
+        lines);
+
+    var logbooks = Files.createDirectories(temp.resolve("logbooks"));
+    Files.write(logbooks.resolve("logbook-1.md"), lines);
+    Files.write(logbooks.resolve("logbook-2.md"), List.of("### Slowest", "|   5|   5.0%|"));
+    Files.write(logbooks.resolve("logbook-3.md"), List.of("### Other", "|7|1%|new|`b`"));
+    var names = Profile.history(logbooks, 2).stream().map(Paths::name);
+    assertEquals(List.of("logbook-2.md", "logbook-3.md"), names.collect(Collectors.toList()));
+    var history = Profile.read(Profile.history(logbooks, 3), "Slowest");
+    assertEquals(Map.of("a", List.of(300L), "b", List.of(700L)), history);
+  }
+
+  @Test
+  void trend() {
+    assertEquals("new", Profile.trend(1, List.of()));
+    assertEquals("+0.0%", Profile.trend(0, List.of(0L)));
+    assertEquals("-25.0%", Profile.trend(75, List.of(50L, 150L)));
+  }
+}
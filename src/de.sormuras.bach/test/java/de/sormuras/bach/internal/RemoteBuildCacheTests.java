@@ -0,0 +1,86 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.sormuras.bach.Call;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RemoteBuildCacheTests {
+
+  @Test
+  void shareOutputsViaReferenceServer(@TempDir Path temp) throws Exception {
+    var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    try (var server = BuildCacheServer.start(address, temp.resolve("server"))) {
+      var http = HttpClient.newHttpClient();
+      var source = Files.createDirectories(temp.resolve("source"));
+      Files.writeString(source.resolve("A.txt"), "a");
+      var archive = temp.resolve("a.jar");
+      var call = Call.jar().with("--create").with("--file", archive).with("-C", source, ".");
+
+      var remote = Optional.of(new RemoteBuildCache(http, server.uri(), 0));
+      var one = new BuildCache(temp.resolve("one"), remote);
+      var key = one.computeKey(call).orElseThrow();
+      assertTrue(one.restore(key).isEmpty());
+      Files.writeString(archive, "archive");
+      one.store(key);
+      Files.delete(archive);
+
+      var expensive = Optional.of(new RemoteBuildCache(http, server.uri(), 1000));
+      assertTrue(new BuildCache(temp.resolve("two"), expensive).restore(key).isEmpty());
+
+      var three = new BuildCache(temp.resolve("three"), remote);
+      assertEquals(Optional.of(7L), three.restore(key));
+      assertEquals("archive", Files.readString(archive));
+    }
+  }
+
+  @Test
+  void forgedActionFilesAreCacheMisses(@TempDir Path temp) throws Exception {
+    var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    try (var server = BuildCacheServer.start(address, temp.resolve("server"))) {
+      var http = HttpClient.newHttpClient();
+      var source = Files.createDirectories(temp.resolve("source"));
+      var archive = temp.resolve("a.jar");
+      var call = Call.jar().with("--create").with("--file", archive).with("-C", source, ".");
+      var remote = Optional.of(new RemoteBuildCache(http, server.uri(), 0));
+      var cache = new BuildCache(temp.resolve("cache"), remote);
+      var key = cache.computeKey(call).orElseThrow();
+      var outside = Paths.replaceBackslashes(temp.resolve("outside.txt"));
+      for (var forgery : new String[] {"../outside 1 file " + outside, "x y z"}) {
+        var uri = server.uri().resolve("ac/" + key.hash());
+        var publisher = HttpRequest.BodyPublishers.ofString(forgery);
+        var request = HttpRequest.newBuilder(uri).PUT(publisher).build();
+        http.send(request, HttpResponse.BodyHandlers.discarding());
+        assertTrue(cache.restore(key).isEmpty(), forgery);
+      }
+      assertTrue(Files.notExists(temp.resolve("outside.txt")));
+    }
+  }
+}
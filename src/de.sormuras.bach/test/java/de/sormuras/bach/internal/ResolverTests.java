@@ -0,0 +1,130 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import test.base.Sources;
+
+class ResolverTests {
+
+  @Test
+  void resolveTransitiveRequires(@TempDir Path temp) throws Exception {
+    var modules = compileModules(temp);
+    var transported = ConcurrentHashMap.<String>newKeySet();
+    var resolver =
+        new Resolver(
+            List.of(Files.createDirectories(temp.resolve("lib"))),
+            Set.of("x"),
+            module -> {
+              transported.add(module);
+              return CompletableFuture.supplyAsync(() -> modules.resolve(module));
+            });
+    resolver.resolve(Set.of("a"));
+    assertEquals(Set.of("a", "b", "c"), new TreeSet<>(transported));
+  }
+
+  @Test
+  void failedTransportFailsResolution(@TempDir Path temp) throws Exception {
+    var modules = compileModules(temp);
+    var resolver =
+        new Resolver(
+            List.of(Files.createDirectories(temp.resolve("lib"))),
+            Set.of(),
+            module ->
+                module.equals("c")
+                    ? CompletableFuture.failedFuture(new IllegalStateException("no " + module))
+                    : CompletableFuture.supplyAsync(() -> modules.resolve(module)));
+    var exception = assertThrows(IllegalStateException.class, () -> resolver.resolve(Set.of("a")));
+    assertEquals("no c", exception.getMessage());
+  }
+
+  @Test
+  void failedTransportAwaitsPendingTransports(@TempDir Path temp) throws Exception {
+    var modules = compileModules(temp);
+    var started = new CountDownLatch(1);
+    var delivered = new AtomicBoolean();
+    var resolver =
+        new Resolver(
+            List.of(Files.createDirectories(temp.resolve("lib"))),
+            Set.of(),
+            module -> {
+              if (module.equals("c")) {
+                return CompletableFuture.runAsync(() -> await(started))
+                    .thenApply(
+                        __ -> {
+                          throw new IllegalStateException("no " + module);
+                        });
+              }
+              if (module.equals("x")) {
+                return CompletableFuture.supplyAsync(
+                    () -> {
+                      started.countDown();
+                      sleep(200);
+                      delivered.set(true);
+                      return modules.resolve(module);
+                    });
+              }
+              return CompletableFuture.completedFuture(modules.resolve(module));
+            });
+    assertThrows(IllegalStateException.class, () -> resolver.resolve(Set.of("b", "x")));
+    assertTrue(delivered.get(), "pending transport of x not awaited");
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      if (!latch.await(10, TimeUnit.SECONDS)) throw new AssertionError("latch timed out");
+    } catch (InterruptedException exception) {
+      throw new AssertionError(exception);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException exception) {
+      throw new AssertionError(exception);
+    }
+  }
+
+  /** Compile modules {@code a} requiring {@code b} requiring {@code c} and the declared x. */
+  private static Path compileModules(Path temp) throws Exception {
+    var sources = temp.resolve("src");
+    Sources.write(sources, "a/module-info.java", "module a { requires b; }");
+    Sources.write(sources, "b/module-info.java", "module b { requires c; requires x; }");
+    Sources.write(sources, "c/module-info.java", "module c {}");
+    Sources.write(sources, "x/module-info.java", "module x {}");
+    var classes = temp.resolve("classes");
+    Sources.javac("--module", "a,b,c,x", "--module-source-path", sources, "-d", classes);
+    return classes;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ResourceLimiterTests {
+
+  private static final long MIB = 1024 * 1024;
+
+  private final ResourceLimiter limiter =
+      new ResourceLimiter(3, Map.of("javadoc", 1), 100 * MIB, Map.of("jlink", 60 * MIB));
+
+  @Test
+  void globalParallelismIsCapped() throws Exception {
+    assertEquals(3, maximumConcurrency("jar", 3));
+  }
+
+  @Test
+  void toolPermitsAreCapped() throws Exception {
+    assertEquals(1, maximumConcurrency("javadoc", 1));
+  }
+
+  @Test
+  void memoryBudgetIsRespected() throws Exception {
+    assertEquals(1, maximumConcurrency("jlink", 1));
+  }
+
+  /**
+   * Run tasks that hold their lease until the expected number of tasks entered at the same time.
+   *
+   * @param tool The name of the tool to acquire leases for
+   * @param expected The number of tasks that are allowed to run concurrently
+   * @return The maximum number of tasks that held a lease at the same time
+   */
+  private int maximumConcurrency(String tool, int expected) throws Exception {
+    var current = new AtomicInteger();
+    var maximum = new AtomicInteger();
+    var entered = new CountDownLatch(expected);
+    var release = new CountDownLatch(1);
+    var tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < 12; i++) {
+      tasks.add(
+          () -> {
+            try (var lease = limiter.acquire(tool)) {
+              assertTrue(lease.isReleasable());
+              maximum.accumulateAndGet(current.incrementAndGet(), Math::max);
+              entered.countDown();
+              release.await();
+              current.decrementAndGet();
+            }
+            return null;
+          });
+    }
+    var executor = Executors.newFixedThreadPool(12);
+    try {
+      var futures = new ArrayList<Future<Void>>();
+      for (var task : tasks) futures.add(executor.submit(task));
+      assertTrue(entered.await(10, TimeUnit.SECONDS), "expected tasks did not enter in time");
+      release.countDown();
+      for (var future : futures) future.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    return maximum.get();
+  }
+}
@@ -23,15 +23,21 @@ import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpClient.Redirect;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -42,6 +48,113 @@ class ResourcesTests {
 
   final HttpClient client = HttpClient.newBuilder().followRedirects(Redirect.NORMAL).build();
 
+  @Test
+  void copyAsyncFromLoopbackServer(@TempDir Path temp) throws Exception {
+    var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    var server = HttpServer.create(address, 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          var name = exchange.getRequestURI().getPath().substring(1);
+          var bytes = name.getBytes(StandardCharsets.UTF_8);
+          var missing = name.equals("missing");
+          exchange.sendResponseHeaders(missing ? 404 : 200, missing ? -1 : bytes.length);
+          if (!missing) exchange.getResponseBody().write(bytes);
+          exchange.close();
+        });
+    server.start();
+    try {
+      var port = server.getAddress().getPort();
+      var uri = URI.create("http://" + address.getHostString() + ':' + port + '/');
+      var resources = new Resources(client);
+      var a = resources.copyAsync(uri.resolve("a"), temp.resolve("a"));
+      var b = resources.copyAsync(uri.resolve("b"), temp.resolve("b"));
+      assertEquals("a", Files.readString(a.join()));
+      assertEquals("b", Files.readString(b.join()));
+      var missing = resources.copyAsync(uri.resolve("missing"), temp.resolve("missing"));
+      var exception = assertThrows(CompletionException.class, missing::join);
+      assertTrue(exception.getCause() instanceof IllegalStateException);
+      assertTrue(Files.notExists(temp.resolve("missing")));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void copyAsyncVerifiesSizeAndDigests(@TempDir Path temp) throws Exception {
+    var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    var server = HttpServer.create(address, 0);
+    var bytes = "0123456789".getBytes(StandardCharsets.UTF_8);
+    server.createContext(
+        "/",
+        exchange -> {
+          exchange.sendResponseHeaders(200, bytes.length);
+          exchange.getResponseBody().write(bytes);
+          exchange.close();
+        });
+    server.start();
+    try {
+      var port = server.getAddress().getPort();
+      var uri = URI.create("http://" + address.getHostString() + ':' + port + "/file");
+      var resources = new Resources(client);
+      var sha256 = digest("SHA-256", bytes);
+      var digests = Map.of("MD5", digest("MD5", bytes), "SHA-256", sha256);
+      var file = resources.copyAsync(uri, temp.resolve("ok"), 10, digests).join();
+      assertEquals("0123456789", Files.readString(file));
+      if (Paths.isViewSupported(file, "user")) {
+        assertEquals(sha256, Resources.findVerifiedDigest(file, "SHA-256").orElseThrow());
+        Files.writeString(file, "changed");
+        assertTrue(Resources.findVerifiedDigest(file, "SHA-256").isEmpty());
+      }
+
+      var large = resources.copyAsync(uri, temp.resolve("large"), 9, Map.of());
+      var exception = assertThrows(CompletionException.class, large::join);
+      assertTrue(exception.getCause().getMessage().contains("exceeds expected 9 bytes"));
+      assertTrue(Files.notExists(temp.resolve("large")));
+
+      var wrong = resources.copyAsync(uri, temp.resolve("wrong"), -1, Map.of("SHA-256", "0"));
+      exception = assertThrows(CompletionException.class, wrong::join);
+      assertTrue(exception.getCause().getMessage().startsWith("Digest SHA-256 of " + uri));
+      assertTrue(Files.notExists(temp.resolve("wrong")));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void copyReplacesInsteadOfWritingIntoLinkedFile(@TempDir Path temp) throws Exception {
+    var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    var server = HttpServer.create(address, 0);
+    var bytes = "new".getBytes(StandardCharsets.UTF_8);
+    server.createContext(
+        "/",
+        exchange -> {
+          exchange.sendResponseHeaders(200, bytes.length);
+          exchange.getResponseBody().write(bytes);
+          exchange.close();
+        });
+    server.start();
+    try {
+      var port = server.getAddress().getPort();
+      var uri = URI.create("http://" + address.getHostString() + ':' + port + "/file");
+      var resources = new Resources(client);
+      var shared = Files.writeString(temp.resolve("shared"), "old");
+      var digests = Map.of("SHA-256", digest("SHA-256", bytes));
+      var files = new ArrayList<Path>();
+      files.add(resources.copy(uri, Paths.linkOrCopy(shared, temp.resolve("a"))));
+      files.add(resources.copyAsync(uri, Paths.linkOrCopy(shared, temp.resolve("b"))).join());
+      var c = Paths.linkOrCopy(shared, temp.resolve("c"));
+      files.add(resources.copyAsync(uri, c, 3, digests).join());
+      for (var file : files) assertEquals("new", Files.readString(file));
+      assertEquals("old", Files.readString(shared));
+      try (var stream = Files.list(temp)) {
+        assertEquals(4, stream.count(), "temporary files left behind");
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
   @Nested
   @DisabledIfSystemProperty(named = "offline", matches = "true")
   class MavenApacheOrg {
@@ -0,0 +1,141 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class SchedulerTests {
+
+  @Test
+  void dependenciesCompleteBeforeDependentTaskStarts() {
+    var trace = new ConcurrentLinkedQueue<String>();
+    var scheduler =
+        new Scheduler()
+            .add("a", () -> trace.add("a"))
+            .add("b", () -> trace.add("b"), "a")
+            .add("c", () -> trace.add("c"), "a")
+            .add("d", () -> trace.add("d"), "b", "c");
+    run(scheduler, 4);
+    var list = List.copyOf(trace);
+    assertEquals(4, list.size());
+    assertEquals("a", list.get(0));
+    assertEquals("d", list.get(3));
+  }
+
+  @Test
+  void independentTasksRunConcurrently() {
+    var latch = new CountDownLatch(2);
+    Runnable meet =
+        () -> {
+          latch.countDown();
+          try {
+            if (!latch.await(9, TimeUnit.SECONDS)) throw new AssertionError("Timeout");
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+        };
+    run(new Scheduler().add("x", meet).add("y", meet), 2);
+    assertEquals(0, latch.getCount());
+  }
+
+  @Test
+  void failingTaskPreventsDependentTasksAndIsRethrown() {
+    var trace = new ConcurrentLinkedQueue<String>();
+    var error = new AssertionError("a failed");
+    var scheduler =
+        new Scheduler()
+            .add("a", () -> fail(trace, "a", error))
+            .add("b", () -> trace.add("b"), "a")
+            .add("c", () -> trace.add("c"), "b");
+    var thrown = assertThrows(AssertionError.class, () -> run(scheduler, 2));
+    assertSame(error, thrown);
+    assertLinesMatch(List.of("a"), List.copyOf(trace));
+  }
+
+  @Test
+  void failureIsRethrownInsteadOfEarlierCancellation() {
+    var started = new CountDownLatch(1);
+    var cancelled = new CountDownLatch(1);
+    var error = new AssertionError("y failed");
+    var scheduler =
+        new Scheduler()
+            .add(
+                "x",
+                () -> {
+                  await(started);
+                  cancelled.countDown();
+                  throw new CancellationException("x cancelled");
+                })
+            .add(
+                "y",
+                () -> {
+                  started.countDown();
+                  await(cancelled);
+                  throw error;
+                });
+    var thrown = assertThrows(AssertionError.class, () -> run(scheduler, 2));
+    assertSame(error, thrown);
+  }
+
+  @Test
+  void unknownDependencyIsRejected() {
+    var scheduler = new Scheduler();
+    assertThrows(IllegalArgumentException.class, () -> scheduler.add("a", () -> {}, "b"));
+  }
+
+  @Test
+  void duplicateNameIsRejected() {
+    var scheduler = new Scheduler().add("a", () -> {});
+    assertThrows(IllegalArgumentException.class, () -> scheduler.add("a", () -> {}));
+  }
+
+  private static void fail(Queue<String> trace, String name, AssertionError error) {
+    trace.add(name);
+    throw error;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      if (!latch.await(9, TimeUnit.SECONDS)) throw new AssertionError("Timeout");
+      Thread.sleep(9);
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void run(Scheduler scheduler, int threads) {
+    var executor = Executors.newFixedThreadPool(threads);
+    try {
+      scheduler.run(executor);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
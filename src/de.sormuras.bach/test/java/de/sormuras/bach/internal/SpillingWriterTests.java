@@ -0,0 +1,63 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpillingWriterTests {
+
+  @Test
+  void keepAllLinesInMemoryWithinLimits(@TempDir Path temp) {
+    var lines = new ArrayList<String>();
+    var writer = new SpillingWriter(temp.resolve("spill.txt"), 2, lines::add);
+    try (var printer = new PrintWriter(writer)) {
+      printer.println("1");
+      printer.print("2\r\n3\n4");
+    }
+    assertEquals(List.of("1", "2", "3", "4"), lines);
+    assertEquals("1\n2\n3\n4", writer.toString());
+    assertTrue(writer.file().isEmpty());
+    assertTrue(Files.notExists(temp.resolve("spill.txt")));
+  }
+
+  @Test
+  void spillAllLinesAndKeepHeadAndTail(@TempDir Path temp) throws Exception {
+    var file = temp.resolve("logbook/spill.txt");
+    var writer = new SpillingWriter(file, 2, line -> {});
+    try (var printer = new PrintWriter(writer)) {
+      for (int i = 1; i <= 9; i++) printer.println(i);
+    }
+    assertEquals(9, writer.count());
+    assertEquals(file, writer.file().orElseThrow());
+    assertLinesMatch(
+        List.of("1", "2", "[... 5 lines omitted, all lines in " + file + " ...]", "8", "9"),
+        writer.toString().lines().collect(Collectors.toList()));
+    assertEquals(List.of("1", "2", "3", "4", "5", "6", "7", "8", "9"), Files.readAllLines(file));
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import test.base.Sources;
+
+class TestClassesTests {
+
+  @Test
+  void referencesIncludeClassesAndDescriptorTypes() throws Exception {
+    var bytes = TestClassesTests.class.getResourceAsStream("TestClassesTests.class").readAllBytes();
+    var references = TestClasses.references(bytes);
+    assertTrue(references.contains("de/sormuras/bach/internal/TestClasses"), references + "");
+    assertTrue(references.contains("java/nio/file/Path"), references + "");
+  }
+
+  @Test
+  void fingerprintsChangeOnlyForTestClassesReferencingChangedClasses(@TempDir Path temp)
+      throws Exception {
+    var main = compile(temp, "main", "p.A", "package p; public class A {}");
+    compile(temp, "main", "p.B", "package p; public class B { static int b() { return 1; } }");
+    var ta = "package t; class TA { p.A a; Nested n; class Nested {} }";
+    var test = compile(temp, "test", "t.TA", ta);
+    compile(temp, "test", "t.TB", "package t; class TB { void m() { p.B.class.getName(); } }");
+    var first = TestClasses.fingerprints(test, List.of(main), "");
+    assertEquals(Set.of("t.TA", "t.TB"), first.keySet());
+
+    compile(temp, "main", "p.B", "package p; public class B { static int b() { return 2; } }");
+    var second = TestClasses.fingerprints(test, List.of(main), "");
+    assertEquals(first.get("t.TA"), second.get("t.TA"));
+    assertNotEquals(first.get("t.TB"), second.get("t.TB"));
+
+    var file = temp.resolve("fingerprints");
+    TestClasses.store(file, second);
+    assertEquals(second, TestClasses.load(file));
+    TestClasses.store(file, Map.of());
+    assertTrue(TestClasses.load(file).isEmpty());
+  }
+
+  private static Path compile(Path temp, String realm, String name, String source)
+      throws Exception {
+    var sources = temp.resolve(realm + "-src");
+    var file = Sources.write(sources, name.replace('.', '/') + ".java", source);
+    var classes = temp.resolve(realm);
+    Sources.javac("-d", classes, "-cp", temp.resolve("main"), file);
+    return classes;
+  }
+}
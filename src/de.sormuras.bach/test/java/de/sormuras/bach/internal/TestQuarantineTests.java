@@ -0,0 +1,77 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestQuarantineTests {
+
+  @Test
+  void readOutcomesOfTestsFromJUnitReports(@TempDir Path temp) throws Exception {
+    Files.writeString(
+        temp.resolve("TEST-junit-jupiter.xml"),
+        String.join(
+            "\n",
+            "<testsuite name=\"JUnit Jupiter\" tests=\"5\">",
+            "<testcase name=\"a()\" classname=\"p.ATests\" time=\"0.25\">",
+            "<failure message=\"expected: &lt;1&gt; but was: &lt;2&gt;\"/>",
+            "</testcase>",
+            "<testcase name=\"b()\" classname=\"p.ATests$Nested\" time=\"0.5\">",
+            "<system-out><![CDATA[b]]></system-out>",
+            "</testcase>",
+            "<testcase name=\"[1] 1\" classname=\"p.BTests\" time=\"0.1\"/>",
+            "<testcase name=\"[2] 2\" classname=\"p.BTests\" time=\"0.1\">",
+            "<error message=\"boom\" type=\"java.lang.IllegalStateException\">trace</error>",
+            "</testcase>",
+            "<testcase name=\"c(TestInfo)\" classname=\"p.CTests\" time=\"1.0\"/>",
+            "</testsuite>"));
+    var outcomes = TestQuarantine.readOutcomes(temp);
+    var expected =
+        Map.of("p.ATests#a", false, "p.ATests$Nested#b", true, "p.BTests", false, "p.CTests", true);
+    assertEquals(expected, outcomes);
+  }
+
+  @Test
+  void storeAndLoadFlips(@TempDir Path temp) {
+    var file = temp.resolve("quarantine").resolve("module");
+    assertEquals(Map.of(), TestQuarantine.load(file));
+    var flips = Map.of("p.ATests#a", 2, "p.BTests", 1);
+    TestQuarantine.store(file, flips);
+    assertEquals(flips, TestQuarantine.load(file));
+  }
+
+  @Test
+  void decayFlipsOfPassedTests() {
+    var flips = new TreeMap<>(Map.of("p.ATests#a", 2, "p.BTests", 1, "p.CTests", 1));
+    var outcomes = Map.of("p.ATests#a", true, "p.BTests", true, "p.CTests", false);
+    assertEquals(Set.of("p.BTests"), TestQuarantine.decay(flips, outcomes));
+    assertEquals(Map.of("p.ATests#a", 1, "p.CTests", 1), flips);
+
+    assertEquals(Set.of("p.ATests#a"), TestQuarantine.decay(flips, outcomes));
+    assertEquals(Map.of("p.CTests", 1), flips);
+    assertEquals(Set.of(), TestQuarantine.decay(flips, Map.of()));
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestShardTests {
+
+  @Test
+  void parseSpecification() {
+    var shard = TestShard.of("2/3");
+    assertEquals(2, shard.index());
+    assertEquals(3, shard.count());
+    assertEquals("2/3", shard.toString());
+    assertThrows(IllegalArgumentException.class, () -> TestShard.of("0/3"));
+    assertThrows(IllegalArgumentException.class, () -> TestShard.of("4/3"));
+    assertThrows(IllegalArgumentException.class, () -> TestShard.of("1"));
+  }
+
+  @Test
+  void assignLongestItemsFirstToLeastLoadedShard() {
+    var durations = Map.of("a", 7L, "b", 5L, "c", 4L, "d", 3L, "e", 2L);
+    var items = Set.of("a", "b", "c", "d", "e", "f");
+    var shards = TestShard.assign(items, durations, 2);
+    // "f" has no recorded duration and takes the average of 4 milliseconds
+    assertEquals(List.of(Set.of("a", "e", "f"), Set.of("b", "c", "d")), shards);
+    assertEquals(Set.of("b", "c", "d"), new TestShard(2, 2).select(items, durations));
+  }
+
+  @Test
+  void readDurationsOfTopLevelClassesFromJUnitReports(@TempDir Path temp) throws Exception {
+    Files.writeString(
+        temp.resolve("TEST-junit-jupiter.xml"),
+        String.join(
+            "\n",
+            "<testsuite name=\"JUnit Jupiter\" tests=\"3\">",
+            "<testcase name=\"a()\" classname=\"p.ATests\" time=\"0.25\">",
+            "</testcase>",
+            "<testcase name=\"b()\" classname=\"p.ATests$Nested\" time=\"0.5\">",
+            "</testcase>",
+            "<testcase name=\"c()\" classname=\"p.BTests\" time=\"1.0\"/>",
+            "</testsuite>"));
+    var durations = TestShard.readJUnitReports(temp);
+    assertEquals(Map.of("p.ATests", 750L, "p.BTests", 1000L), durations);
+
+    var file = temp.resolve("durations");
+    TestShard.storeDurations(file, durations);
+    assertEquals(durations, TestShard.loadDurations(file));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import test.base.Sources;
+
+class TestWorkerPoolTests {
+
+  @Test
+  void workerStreamsLinesAndExitCodeOfEachRequest(@TempDir Path temp) throws Exception {
+    var modulePaths = List.of(compile(temp));
+    var requests = new PipedOutputStream();
+    var messages = new PipedInputStream();
+    var server = new PipedInputStream(requests);
+    var channel = new TestWorker.Channel(new PipedOutputStream(messages));
+    var thread =
+        new Thread(
+            () -> {
+              try {
+                TestWorker.serve(server, channel);
+              } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+              }
+            });
+    thread.setDaemon(true);
+    thread.start();
+
+    var worker = new TestWorkerPool.Worker(null, requests, messages);
+    var out = new StringWriter();
+    var err = new StringWriter();
+    var code = worker.run("t", "t", modulePaths, writer(out), writer(err), "1", "2", "3");
+    assertEquals(3, code);
+    var lines = out.toString().lines().collect(Collectors.toList());
+    assertLinesMatch(List.of("out 1 2 3", "partial"), lines);
+    assertLinesMatch(List.of("err"), err.toString().lines().collect(Collectors.toList()));
+
+    var again = new StringWriter();
+    assertEquals(0, worker.run("t", "t", modulePaths, writer(again), writer(err)));
+    lines = again.toString().lines().collect(Collectors.toList());
+    assertLinesMatch(List.of("out", "partial"), lines);
+
+    var missing = new StringWriter();
+    assertEquals(1, worker.run("x", "t", modulePaths, writer(out), writer(missing)));
+    assertTrue(missing.toString().contains("'x' not found"), missing.toString());
+
+    requests.close();
+    thread.join(10_000);
+  }
+
+  private static PrintWriter writer(StringWriter writer) {
+    return new PrintWriter(writer, true);
+  }
+
+  private static Path compile(Path temp) throws Exception {
+    var sources = temp.resolve("src");
+    var module = "module t { provides java.util.spi.ToolProvider with t.T; }";
+    Sources.write(sources, "t/module-info.java", module);
+    Sources.write(
+        sources,
+        "t/t/T.java",
+        "package t; public class T implements java.util.spi.ToolProvider {"
+            + " public String name() { return \"t\"; }"
+            + " public int run(java.io.PrintWriter o, java.io.PrintWriter e, String... a) {"
+            + " o.println((\"out \" + String.join(\" \", a)).strip());"
+            + " if (a.length > 0) e.println(\"err\");"
+            + " o.print(\"partial\"); return a.length; } }");
+    return Sources.compileModule(sources, "t", temp.resolve("classes"));
+  }
+}
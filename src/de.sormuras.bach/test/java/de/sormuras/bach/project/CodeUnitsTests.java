@@ -0,0 +1,77 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sormuras.bach.project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.module.ModuleDescriptor;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class CodeUnitsTests {
+
+  @Test
+  void unitsAreSortedInRequiresOrder() {
+    var units = units(unit("a", "b", "c"), unit("b", "c"), unit("c"), unit("d", "java.sql"));
+    var sorted = units.toUnitsInRequiresOrder();
+    assertEquals(List.of("c", "b", "a", "d"), names(sorted));
+  }
+
+  @Test
+  void cyclicRequiresAreDetected() {
+    var units = units(unit("a", "b"), unit("b", "c"), unit("c", "a"));
+    var exception = assertThrows(IllegalStateException.class, units::toUnitsInRequiresOrder);
+    assertTrue(exception.getMessage().startsWith("Cyclic requires"), exception.getMessage());
+  }
+
+  @Test
+  void requiredNamesAreLimitedToUnits() {
+    var a = unit("a", "b", "x");
+    var units = units(a, unit("b", "c"), unit("c", "y"));
+    assertEquals(Set.of("b"), units.toRequiredNames(a));
+    assertEquals(Set.of(), units.toRequiredNames(units.findUnit("c").orElseThrow()));
+  }
+
+  @Test
+  void requiredNamesClosureContainsIndirectlyRequiredUnits() {
+    var a = unit("a", "b");
+    var d = unit("d", "c", "e");
+    var units = units(a, unit("b", "c"), unit("c", "x"), d, unit("e", "c"));
+    assertEquals(Set.of("b", "c"), units.toRequiredNamesClosure(a));
+    assertEquals(Set.of("c", "e"), units.toRequiredNamesClosure(d));
+    assertEquals(Set.of(), units.toRequiredNamesClosure(units.findUnit("c").orElseThrow()));
+  }
+
+  private static CodeUnits units(CodeUnit... units) {
+    return CodeUnits.of().with(units);
+  }
+
+  private static CodeUnit unit(String name, String... requires) {
+    var builder = ModuleDescriptor.newModule(name);
+    for (var required : requires) builder.requires(required);
+    return new CodeUnit(builder.build(), SourceFolders.of(), List.of());
+  }
+
+  private static List<String> names(List<CodeUnit> units) {
+    return units.stream().map(CodeUnit::name).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2020 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.base;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.spi.ToolProvider;
+
+/** Write Java source files to disk and compile them with {@code javac} for tests. */
+public interface Sources {
+
+  /** Write the source to a file in the given directory, creating its parent directories. */
+  static Path write(Path directory, String file, String source) throws Exception {
+    var path = directory.resolve(file);
+    Files.createDirectories(path.getParent());
+    return Files.writeString(path, source);
+  }
+
+  /** Run {@code javac} with the given arguments and assert that it exits normally. */
+  static void javac(Object... args) {
+    var javac = ToolProvider.findFirst("javac").orElseThrow();
+    var strings = new String[args.length];
+    for (int i = 0; i < args.length; i++) strings[i] = args[i].toString();
+    var code = javac.run(System.out, System.err, strings);
+    assertEquals(0, code, () -> "javac " + String.join(" ", strings));
+  }
+
+  /**
+   * Compile a module declared in the module source path and return the destination directory.
+   *
+   * @param sources The directory containing a {@code MODULE/module-info.java} file
+   * @param module The name of the module to compile
+   * @param classes The destination directory to which {@code MODULE} classes are written
+   * @return The destination directory, usable as a module path element
+   */
+  static Path compileModule(Path sources, String module, Path classes) {
+    javac("--module", module, "--module-source-path", sources, "-d", classes);
+    return classes;
+  }
+}